@@ -0,0 +1,90 @@
+/******************************************************************************
+
+Copyright (c) 2013, Mandar Chitre
+
+This file is part of fjage which is released under Simplified BSD License.
+See file LICENSE.txt or go to http://www.opensource.org/licenses/BSD-3-Clause
+for full license details.
+
+******************************************************************************/
+
+package org.arl.fjage.benchmark;
+
+import java.util.concurrent.TimeUnit;
+import org.arl.fjage.*;
+import org.arl.fjage.remote.Gateway;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Compares agents running on platform threads against agents running on
+ * virtual threads. Each agent blocks in a receive() call within a behavior,
+ * and echoes back any message it gets. Each benchmark iteration sends a
+ * message to every agent, and waits for all the replies.
+ * <p>
+ * Virtual threads require a Java 21 runtime. On older runtimes, the "virtual"
+ * configuration falls back to platform threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class AgentThreadsBenchmark {
+
+  private static final long TIMEOUT = 10000;
+
+  @Param({"platform", "virtual"})
+  public String threads;
+
+  @Param({"1000", "10000"})
+  public int agents;
+
+  private Platform platform;
+  private Gateway gw;
+  private AgentID[] aids;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    platform = new RealTimePlatform();
+    Container container = new Container(platform);
+    container.setVirtualThreads(threads.equals("virtual"));
+    aids = new AgentID[agents];
+    for (int i = 0; i < agents; i++)
+      aids[i] = container.add("echo"+i, new EchoAgent());
+    gw = new Gateway(container);
+    container.getAgent(gw.getAgentID()).setQueueSize(2*agents);
+    platform.start();
+  }
+
+  @TearDown(Level.Trial)
+  public void teardown() {
+    gw.close();
+    platform.shutdown();
+  }
+
+  @Benchmark
+  public int echo() {
+    for (AgentID aid: aids)
+      gw.send(new Message(aid, Performative.REQUEST));
+    int n = 0;
+    while (n < agents && gw.receive(TIMEOUT) != null)
+      n++;
+    if (n < agents) throw new FjageException("Only "+n+" of "+agents+" replies received");
+    return n;
+  }
+
+  public static class EchoAgent extends Agent {
+    @Override
+    public void init() {
+      add(new CyclicBehavior() {
+        @Override
+        public void action() {
+          Message msg = receive(BLOCKING);
+          if (msg != null) send(new Message(msg, Performative.INFORM));
+        }
+      });
+    }
+  }
+
+}
@@ -0,0 +1,88 @@
+/******************************************************************************
+
+Copyright (c) 2013, Mandar Chitre
+
+This file is part of fjage which is released under Simplified BSD License.
+See file LICENSE.txt or go to http://www.opensource.org/licenses/BSD-3-Clause
+for full license details.
+
+******************************************************************************/
+
+package org.arl.fjage.benchmark;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.arl.fjage.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures the event throughput of the discrete event simulator. Each
+ * benchmark invocation runs a simulation where every agent has a ticker
+ * behavior, and sends a message to the next agent on every tick. Agents use
+ * a few different tick periods, so that some events coincide in time. The
+ * "events" counter reports simulator events per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DiscreteEventSimulatorBenchmark {
+
+  private static final int TICKS = 1000;
+
+  @Param({"10", "100"})
+  public int agents;
+
+  @AuxCounters(AuxCounters.Type.OPERATIONS)
+  @State(Scope.Thread)
+  public static class Counters {
+    public long events;
+  }
+
+  @Benchmark
+  public long simulate(Counters counters) throws InterruptedException {
+    DiscreteEventSimulator platform = new DiscreteEventSimulator();
+    Container container = new Container(platform);
+    CountDownLatch done = new CountDownLatch(agents);
+    for (int i = 0; i < agents; i++)
+      container.add("a"+i, new TickAgent(new AgentID("a"+(i+1)%agents), 10+i%5, done));
+    platform.start();
+    done.await();
+    platform.shutdown();
+    counters.events += platform.getEventCount();
+    return platform.currentTimeMillis();
+  }
+
+  public static class TickAgent extends Agent {
+
+    private final AgentID next;
+    private final long period;
+    private final CountDownLatch done;
+
+    public TickAgent(AgentID next, long period, CountDownLatch done) {
+      this.next = next;
+      this.period = period;
+      this.done = done;
+    }
+
+    @Override
+    public void init() {
+      add(new TickerBehavior(period) {
+        @Override
+        public void onTick() {
+          send(new Message(next, Performative.INFORM));
+          if (getTickCount() >= TICKS) {
+            stop();
+            done.countDown();
+          }
+        }
+      });
+      add(new MessageBehavior(msg -> {
+        // consume messages
+      }));
+    }
+  }
+
+}
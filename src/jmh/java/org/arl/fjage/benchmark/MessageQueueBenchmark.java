@@ -0,0 +1,63 @@
+/******************************************************************************
+
+Copyright (c) 2013, Mandar Chitre
+
+This file is part of fjage which is released under Simplified BSD License.
+See file LICENSE.txt or go to http://www.opensource.org/licenses/BSD-3-Clause
+for full license details.
+
+******************************************************************************/
+
+package org.arl.fjage.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.arl.fjage.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Compares the synchronized {@link MessageQueue} against the lock-free
+ * {@link MpscMessageQueue} under fan-in. Several producer threads add messages
+ * to a single queue, while one consumer thread commits and drains it, as an
+ * agent does.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MessageQueueBenchmark {
+
+  @Param({"sync", "mpsc"})
+  public String impl;
+
+  private AbstractMessageQueue queue;
+  private final List<MessageFilter> exclusions = new ArrayList<>();
+  private final Message msg = new Message(Performative.INFORM);
+
+  @Setup(Level.Iteration)
+  public void setup() {
+    queue = impl.equals("mpsc") ? new MpscMessageQueue(256) : new MessageQueue(256);
+  }
+
+  @Benchmark
+  @Group("fanin")
+  @GroupThreads(4)
+  public void produce() {
+    queue.add(msg);
+  }
+
+  @Benchmark
+  @Group("fanin")
+  @GroupThreads(1)
+  public int consume() {
+    queue.commit(exclusions);
+    int n = 0;
+    while (queue.get() != null)
+      n++;
+    return n;
+  }
+
+}
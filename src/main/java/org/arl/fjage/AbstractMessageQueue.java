@@ -0,0 +1,251 @@
+/******************************************************************************
+
+Copyright (c) 2013, Mandar Chitre
+
+This file is part of fjage which is released under Simplified BSD License.
+See file LICENSE.txt or go to http://www.opensource.org/licenses/BSD-3-Clause
+for full license details.
+
+******************************************************************************/
+
+package org.arl.fjage;
+
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Base class for agent message queues. Messages are added to the queue by
+ * senders, and held uncommitted until the agent commits them, at which point
+ * messages that are not excluded become available to the agent. The base class
+ * holds the overflow policy and the overflow counters, and leaves storage of
+ * messages to its subclasses.
+ *
+ * @see MessageQueue
+ * @see MpscMessageQueue
+ */
+public abstract class AbstractMessageQueue {
+
+  /////////// Private attributes
+
+  private final LongAdder dropped = new LongAdder();
+  private final LongAdder rejected = new LongAdder();
+  private volatile OverflowPolicy policy = OverflowPolicy.DROP_OLDEST;
+  private volatile long blockTimeout = 0;
+
+  /////////// Interface methods
+
+  /**
+   * Sets the maximum length of the queue.
+   *
+   * @param size maximum number of messages, or 0 for an unbounded queue.
+   */
+  public abstract void setSize(int size);
+
+  /**
+   * Sets the policy to apply when a message arrives and the queue is full.
+   *
+   * @param policy overflow policy.
+   * @param timeout maximum time in milliseconds for a sender to wait for space
+   *                in the queue, for the {@link OverflowPolicy#BLOCK} policy, or
+   *                {@link Agent#BLOCKING} to wait indefinitely.
+   */
+  public synchronized void setOverflowPolicy(OverflowPolicy policy, long timeout) {
+    if (policy == null) throw new NullPointerException();
+    this.policy = policy;
+    blockTimeout = timeout;
+    notifyAll();
+  }
+
+  /**
+   * Gets the policy applied when a message arrives and the queue is full.
+   *
+   * @return overflow policy.
+   */
+  public OverflowPolicy getOverflowPolicy() {
+    return policy;
+  }
+
+  /**
+   * Gets the maximum time a sender waits for space in the queue, for the
+   * {@link OverflowPolicy#BLOCK} policy.
+   *
+   * @return timeout in milliseconds.
+   */
+  public long getBlockTimeout() {
+    return blockTimeout;
+  }
+
+  /**
+   * Splits the queue into priority lanes. Messages are placed in lanes by their
+   * explicit priority if set, or else by the lane selector. If neither is
+   * available, messages are placed in the lowest priority lane. Higher priority
+   * lanes are drained first, but after a burst of messages from higher lanes,
+   * the oldest message waiting in a lower lane is taken. Messages already in
+   * the queue are redistributed.
+   *
+   * @param lanes number of lanes (1 for a single FIFO).
+   * @param selector lane selector, or null to only use explicit message priorities.
+   * @param burst maximum number of consecutive messages taken from higher lanes
+   *              while lower lanes wait, or 0 to disable starvation protection.
+   */
+  public abstract void setLanes(int lanes, LaneSelector selector, int burst);
+
+  /**
+   * Gets the number of priority lanes in the queue.
+   *
+   * @return number of lanes.
+   */
+  public abstract int getLanes();
+
+  /**
+   * Adds a message to the queue, without waiting for space in the queue.
+   *
+   * @param m message to add.
+   * @return true if the message was accepted or dropped, false if it was rejected.
+   */
+  public boolean add(Message m) {
+    return add(m, false);
+  }
+
+  /**
+   * Adds a message to the queue.
+   *
+   * @param m message to add.
+   * @param wait true if the caller may wait for space in the queue, false otherwise.
+   * @return true if the message was accepted or dropped, false if it was rejected.
+   */
+  public abstract boolean add(Message m, boolean wait);
+
+  /**
+   * Adds a batch of messages to the queue.
+   *
+   * @param msgs messages to add.
+   * @param wait true if the caller may wait for space in the queue, false otherwise.
+   * @return array with an entry for each message, true if the message was
+   *         accepted or dropped, false if it was rejected.
+   */
+  public abstract boolean[] addAll(List<Message> msgs, boolean wait);
+
+  /**
+   * Commits uncommitted messages that do not match any of the exclusion filters.
+   * A null filter excludes all messages.
+   *
+   * @param exclusions exclusion filters.
+   */
+  public abstract void commit(Iterable<MessageFilter> exclusions);
+
+  /**
+   * Removes and returns the next committed message.
+   *
+   * @return message, or null if none.
+   */
+  public abstract Message get();
+
+  /**
+   * Removes and returns the next committed message matching a filter.
+   *
+   * @param filter message filter.
+   * @return message, or null if none.
+   */
+  public abstract Message get(MessageFilter filter);
+
+  /**
+   * Removes all committed messages.
+   */
+  public abstract void clear();
+
+  /**
+   * Gets the number of committed messages.
+   *
+   * @return message count.
+   */
+  public abstract int length();
+
+  /**
+   * Gets the number of messages that may be added before the queue is full,
+   * including messages that are not yet committed.
+   *
+   * @return number of messages, or {@link Integer#MAX_VALUE} if the queue is unbounded.
+   */
+  public abstract int getCredit();
+
+  /**
+   * Gets the number of messages rejected because the queue was full.
+   *
+   * @return message count.
+   */
+  public long getRejected() {
+    return rejected.sum();
+  }
+
+  /**
+   * Gets the number of messages dropped because the queue overflowed.
+   *
+   * @return message count.
+   */
+  public long getDropped() {
+    return dropped.sum();
+  }
+
+  /////////// Methods for subclasses
+
+  /**
+   * Records messages dropped due to overflow.
+   *
+   * @param n number of messages dropped.
+   */
+  protected void dropped(int n) {
+    if (n > 0) dropped.add(n);
+  }
+
+  /**
+   * Records a message rejected because the queue was full.
+   */
+  protected void rejected() {
+    rejected.increment();
+  }
+
+  /**
+   * Stack of exclusion filters, pre-processed so that reply filters are
+   * matched with a single set lookup per message.
+   */
+  static final class Exclusions {
+
+    final boolean all;
+    private Set<String> replies = null;
+    private List<MessageFilter> others = null;
+
+    Exclusions(Iterable<MessageFilter> exclusions) {
+      boolean all = false;
+      for (MessageFilter mf: exclusions) {
+        if (mf == null) {
+          all = true;
+          break;
+        }
+        if (mf instanceof ReplyMessageFilter) {
+          if (replies == null) replies = new HashSet<>();
+          replies.add(((ReplyMessageFilter)mf).getMessageID());
+        } else {
+          if (others == null) others = new ArrayList<>();
+          others.add(mf);
+        }
+      }
+      this.all = all;
+    }
+
+    boolean matches(Message m) {
+      if (all) return true;
+      if (replies != null) {
+        String irt = m.getInReplyTo();
+        if (irt != null && replies.contains(irt)) return true;
+      }
+      if (others != null) {
+        for (MessageFilter mf: others)
+          if (mf.matches(m)) return true;
+      }
+      return false;
+    }
+
+  }
+
+}
@@ -13,13 +13,23 @@ package org.arl.fjage;
 import java.io.Serializable;
 import java.util.*;
 import java.util.TimerTask;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import org.arl.fjage.auth.AuthFailureException;
 import org.arl.fjage.persistence.Store;
 import org.arl.fjage.remote.SlaveContainer;
 
@@ -68,6 +78,15 @@ public class Agent implements Runnable, TimestampProvider, Messenger {
    */
   public static final long BLOCKING = -1;
 
+  /////////////////////// Private constants
+
+  // maximum number of behavior actions executed per step on a shared executor
+  private static final int STEP_BUDGET = 64;
+
+  // set while a thread is in trySend() or runs an agent on an executor, so that
+  // deliveries do not wait for space
+  private static final ThreadLocal<Boolean> noWait = new ThreadLocal<>();
+
   /////////////////////// Log levels
 
   protected static final Level ALL = Level.ALL;
@@ -81,19 +100,47 @@ public class Agent implements Runnable, TimestampProvider, Messenger {
 
   /////////////////////// Private attributes
 
+  static final int BUSY = 0;
+  static final int IDLE = 1;
+  static final int REMOVED = 2;
+
   private AgentID aid = null;
   private volatile AgentState state = AgentState.INIT;
   private volatile AgentState oldState = AgentState.NONE;
   private Queue<Behavior> newBehaviors = new ArrayDeque<>();
-  private Queue<Behavior> activeBehaviors = new PriorityQueue<>();
-  private Queue<Behavior> blockedBehaviors = new ArrayDeque<>();
+  private final BehaviorScheduler scheduler = new BehaviorScheduler();
   private Stack<MessageFilter> exclusions = new Stack<>();
   private volatile boolean restartBehaviors = false;
+  final AtomicInteger idleState = new AtomicInteger(BUSY);   // idle state, as tracked by container
+  private boolean targetedWakeup = false;
+  AgentLocalRandom random = null;                             // bound by container when agent is added
+  private Queue<Message> arrivals = new ArrayDeque<>();
+  private List<Message> deferred = new ArrayList<>();
   private boolean unblocked = false;
+  private ScheduledTask timer = null;
+  private long timerAt = -1;
   private Platform platform = null;
   private Container container = null;
-  private MessageQueue queue = new MessageQueue(256);
+  private AbstractMessageQueue queue = new MessageQueue(256);
   private boolean yieldDuringReceive = false;
+  private Executor executor = null;
+  private boolean scheduled = false;
+  private boolean started = false;
+  private final AgentMetrics metrics = new AgentMetrics(this);
+  private final Map<String,PendingReply> pending = new ConcurrentHashMap<>();
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition wakeup = lock.newCondition();
+  private final ForkJoinPool.ManagedBlocker waiter = new ForkJoinPool.ManagedBlocker() {
+    @Override
+    public boolean block() throws InterruptedException {
+      wakeup.await();
+      return true;
+    }
+    @Override
+    public boolean isReleasable() {
+      return false;
+    }
+  };
   protected long tid = -1;
   protected Thread thread = null;
   protected boolean ignoreExceptions = false;
@@ -181,30 +228,37 @@ public class Agent implements Runnable, TimestampProvider, Messenger {
    * Blocks the agent until its woken up by a message or a call to the
    * {@link #wake()} method.
    */
-  protected synchronized void block() {
-    if (state == AgentState.FINISHING) return;
-    if (!unblocked) {
-      unblocked = true;
-      if (restartBehaviors) return;
-      for (Behavior b: blockedBehaviors)
-        if (!b.isBlocked()) return;
-    }
-    unblocked = false;
-    oldState = state;
-    state = AgentState.IDLE;
-    container.reportIdle(aid);
+  protected void block() {
+    lock.lock();
     try {
-      wait();
-    } catch (InterruptedException ex) {
-      Thread.currentThread().interrupt();
-    }
-    if (state == AgentState.IDLE) {
-      log.info("block() interrupted");
-      if (oldState != AgentState.NONE) {
-        state = oldState;
-        if (container != null) container.reportBusy(aid);
-        oldState = AgentState.NONE;
+      if (state == AgentState.FINISHING) return;
+      if (!unblocked) {
+        unblocked = true;
+        if (restartBehaviors) return;
+        if (scheduler.hasPending(currentTimeMillis())) return;
       }
+      unblocked = false;
+      if (!armTimer()) return;
+      oldState = state;
+      state = AgentState.IDLE;
+      container.reportIdle(this);
+      try {
+        // on a shared pool, let the pool compensate for the blocked carrier thread
+        if (executor != null) ForkJoinPool.managedBlock(waiter);
+        else wakeup.await();
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+      if (state == AgentState.IDLE) {
+        log.info("block() interrupted");
+        if (oldState != AgentState.NONE) {
+          state = oldState;
+          if (container != null) container.reportBusy(this);
+          oldState = AgentState.NONE;
+        }
+      }
+    } finally {
+      lock.unlock();
     }
   }
 
@@ -215,13 +269,14 @@ public class Agent implements Runnable, TimestampProvider, Messenger {
    * @param millis timeout in milliseconds
    */
   protected void block(long millis) {
-    platform.schedule(new TimerTask() {
+    ScheduledTask timeout = platform.schedule(new TimerTask() {
         @Override
         public void run() {
           wake();
         }
       }, millis);
     block();
+    timeout.cancel();
   }
 
   /**
@@ -241,16 +296,66 @@ public class Agent implements Runnable, TimestampProvider, Messenger {
     }
   }
 
+  // schedules a wakeup for the earliest behavior timeout, if not already
+  // scheduled, before the agent goes idle; called with lock held, and returns
+  // false if the timeout has already expired
+  private boolean armTimer() {
+    long at = scheduler.nextDeadline();
+    if (at < 0 || at == timerAt) return true;
+    long dt = at - currentTimeMillis();
+    if (dt <= 0) return false;
+    if (timer != null) timer.cancel();
+    timerAt = at;
+    timer = platform.schedule(new TimerTask() {
+      @Override
+      public void run() {
+        lock.lock();
+        try {
+          if (timerAt == at) {
+            timer = null;
+            timerAt = -1;
+          }
+        } finally {
+          lock.unlock();
+        }
+        wake();
+      }
+    }, dt);
+    return true;
+  }
+
+  /**
+   * Notifies the agent that a behavior was restarted, reset or blocked, so that
+   * it can be rescheduled. Called by behaviors as needed.
+   */
+  void behaviorChanged(Behavior b) {
+    if (Thread.currentThread().getId() == tid) {
+      scheduler.changed(b);
+      return;
+    }
+    scheduler.restarted(b);
+    wake();
+  }
+
   /**
    * Wakes up the agent if it was blocked using {@link #block}.
    */
-  public synchronized void wake() {
-    if (oldState != AgentState.NONE) {
-      state = oldState;
-      if (container != null) container.reportBusy(aid);
-      oldState = AgentState.NONE;
+  public void wake() {
+    lock.lock();
+    try {
+      if (oldState != AgentState.NONE) {
+        state = oldState;
+        if (container != null) container.reportBusy(this);
+        oldState = AgentState.NONE;
+      }
+      if (executor != null && !scheduled) {
+        scheduled = true;
+        submit();
+      }
+      wakeup.signal();
+    } finally {
+      lock.unlock();
     }
-    notify();
   }
 
   /**
@@ -259,7 +364,7 @@ public class Agent implements Runnable, TimestampProvider, Messenger {
   public void stop() {
     if (state == AgentState.FINISHED  || state == AgentState.FINISHING) return;
     state = oldState = AgentState.FINISHING;
-    if (container != null) container.reportBusy(aid);
+    if (container != null) container.reportBusy(this);
     wake();
   }
 
@@ -270,10 +375,15 @@ public class Agent implements Runnable, TimestampProvider, Messenger {
    * @param b behavior to be added.
    * @return the behavior (same as input b)
    */
-  public synchronized Behavior add(Behavior b) {
-    b.setOwner(this);
-    newBehaviors.add(b);
-    wake();
+  public Behavior add(Behavior b) {
+    lock.lock();
+    try {
+      b.setOwner(this);
+      newBehaviors.add(b);
+      wake();
+    } finally {
+      lock.unlock();
+    }
     return b;
   }
 
@@ -408,7 +518,62 @@ public class Agent implements Runnable, TimestampProvider, Messenger {
   public boolean send(final Message m) {
     if (container == null) return false;
     m.setSender(aid);
-    return container.send(m);
+    boolean sent = container.send(m);
+    if (sent) metrics.sent();
+    return sent;
+  }
+
+  /**
+   * Sends a batch of messages. Messages are grouped by recipient, so that each
+   * recipient is looked up once, and its message queue is locked once for
+   * the batch. Messages to remote containers are written to each connection
+   * in a single write. Messages to the same recipient are delivered in order,
+   * but no order is guaranteed between messages to different recipients.
+   *
+   * @param msgs messages to be sent.
+   * @return number of messages sent successfully.
+   */
+  public int sendAll(Collection<? extends Message> msgs) {
+    if (container == null) return 0;
+    for (Message m: msgs)
+      m.setSender(aid);
+    int n = container.sendAll(msgs);
+    metrics.sent(n);
+    return n;
+  }
+
+  /**
+   * Sends a message without waiting for space in the recipient's message queue.
+   * If the recipient's queue is full and its overflow policy is
+   * {@link OverflowPolicy#BLOCK}, the message is rejected immediately rather
+   * than blocking the sender.
+   *
+   * @param m message to be sent.
+   * @return true if the message was sent, false if it was rejected.
+   * @see #getCredit(AgentID)
+   */
+  public boolean trySend(final Message m) {
+    if (noWait.get() != null) return send(m);
+    noWait.set(Boolean.TRUE);
+    try {
+      return send(m);
+    } finally {
+      noWait.remove();
+    }
+  }
+
+  /**
+   * Gets the number of messages that an agent in the same container can
+   * accept before its message queue is full. Producers may use this to pace
+   * themselves when sending to a slow consumer.
+   *
+   * @param aid id of the recipient agent.
+   * @return number of messages, {@link Integer#MAX_VALUE} if the recipient's
+   *         queue is unbounded, or -1 if the recipient is not in the container.
+   */
+  public int getCredit(AgentID aid) {
+    if (container == null) return -1;
+    return container.getCredit(aid);
   }
 
   /**
@@ -472,6 +637,16 @@ public class Agent implements Runnable, TimestampProvider, Messenger {
           block(t);
         }
         exclusions.pop();
+        if (exclusions.isEmpty() && !deferred.isEmpty()) {
+          lock.lock();
+          try {
+            arrivals.addAll(deferred);
+            restartBehaviors = true;
+          } finally {
+            lock.unlock();
+          }
+          deferred.clear();
+        }
         if (Thread.interrupted()) return null;
         if (state == AgentState.FINISHING) return null;
         queue.commit(exclusions);
@@ -503,7 +678,7 @@ public class Agent implements Runnable, TimestampProvider, Messenger {
 
   @Override
   public Message receive(final Class<?> cls, long timeout) {
-    return receive(m -> cls.isInstance(m), timeout);
+    return receive(new ClassMessageFilter(cls), timeout);
   }
 
   @Override
@@ -515,15 +690,7 @@ public class Agent implements Runnable, TimestampProvider, Messenger {
   public Message receive(final Message m, long timeout) {
     if (container instanceof SlaveContainer)
       ((SlaveContainer)container).checkAuthFailure(m.getMessageID());
-    Message rsp = receive(new MessageFilter() {
-      private String mid = m.getMessageID();
-      @Override
-      public boolean matches(Message m) {
-        String s = m.getInReplyTo();
-        if (s == null) return false;
-        return s.equals(mid);
-      }
-    }, timeout);
+    Message rsp = receive(new ReplyMessageFilter(m), timeout);
     if (rsp != null) return rsp;
     if (container instanceof SlaveContainer)
       ((SlaveContainer)container).checkAuthFailure(m.getMessageID());
@@ -535,7 +702,11 @@ public class Agent implements Runnable, TimestampProvider, Messenger {
     if (Thread.currentThread().getId() != tid)
       throw new FjageException("request() should only be called from agent thread "+tid+", but called from "+Thread.currentThread().getId());
     if (!send(msg)) return null;
-    return receive(msg, timeout);
+    long t0 = System.nanoTime();
+    Message rsp = receive(msg, timeout);
+    if (rsp == null) metrics.requestTimedOut();
+    else metrics.requestCompleted(System.nanoTime() - t0);
+    return rsp;
   }
 
   /**
@@ -550,16 +721,203 @@ public class Agent implements Runnable, TimestampProvider, Messenger {
     return request(msg, 1000);
   }
 
+  /**
+   * Sends a request and returns a future that completes with the response. Unlike
+   * {@link #request(Message, long)}, this method may be called from any thread,
+   * and no thread waits for the response. The response is matched to the request
+   * as it is delivered to the agent, and does not enter the agent's message queue.
+   * The future completes with null if the request could not be sent, if no response
+   * arrives within the timeout, or if the agent terminates.
+   * <p>
+   * Dependent actions of the future run on the thread that completes it (the
+   * sender of the response, or a timer thread), unless the async variants of
+   * {@link CompletableFuture} methods are used. The agent thread should not
+   * wait on the future, as the response may only be delivered once the agent
+   * thread is free.
+   *
+   * @param msg message to send.
+   * @param timeout timeout in milliseconds, or {@link #BLOCKING} to wait indefinitely.
+   * @return future that completes with the response message, or null on timeout.
+   */
+  public CompletableFuture<Message> requestAsync(final Message msg, long timeout) {
+    PendingReply p = new PendingReply(msg.getMessageID());
+    Platform platform = this.platform;
+    if (container == null || platform == null) {
+      p.complete(null);
+      return p;
+    }
+    pending.put(p.id, p);
+    if (!send(msg)) {
+      p.abort();
+      return p;
+    }
+    if (timeout != BLOCKING) {
+      p.timer = platform.schedule(new TimerTask() {
+        @Override
+        public void run() {
+          p.expire();
+        }
+      }, timeout);
+      if (p.isDone()) p.timer.cancel();
+    }
+    return p;
+  }
+
+  /**
+   * Sends a request and returns a future that completes with the response, or with
+   * null if no response arrives within a default timeout of 1 second.
+   *
+   * @param msg message to send.
+   * @return future that completes with the response message, or null on timeout.
+   * @see #requestAsync(Message, long)
+   */
+  public CompletableFuture<Message> requestAsync(final Message msg) {
+    return requestAsync(msg, 1000);
+  }
+
   /**
    * Sets the maximum length of the incoming message queue for the agent.
-   * If the queue overflows, the oldest messages are dropped.
+   * If the queue overflows, messages are handled as per the queue's
+   * overflow policy. By default, the oldest messages are dropped.
    *
    * @param size maximum number of messages in the message queue.
+   * @see #setQueueOverflowPolicy(OverflowPolicy, long)
    */
   public void setQueueSize(int size) {
     queue.setSize(size);
   }
 
+  /**
+   * Sets the policy for handling incoming messages when the message queue
+   * is full.
+   *
+   * @param policy overflow policy.
+   */
+  public void setQueueOverflowPolicy(OverflowPolicy policy) {
+    setQueueOverflowPolicy(policy, queue.getBlockTimeout());
+  }
+
+  /**
+   * Sets the policy for handling incoming messages when the message queue
+   * is full. With the {@link OverflowPolicy#BLOCK} policy, senders wait up to
+   * the specified timeout for space in the queue, before the message is
+   * rejected. Senders do not wait if they are the agent itself, if they use
+   * {@link #trySend(Message)}, or if the agent is on a simulated platform
+   * (where simulated time cannot advance while the sender waits). Senders
+   * running on a shared executor, a fork/join pool or a virtual thread do not
+   * wait either, since a parked sender would hold on to a pooled thread that
+   * the recipient may need to make space.
+   *
+   * @param policy overflow policy.
+   * @param timeout maximum time in milliseconds for a sender to wait, or
+   *                {@link #BLOCKING} to wait indefinitely.
+   */
+  public void setQueueOverflowPolicy(OverflowPolicy policy, long timeout) {
+    queue.setOverflowPolicy(policy, timeout);
+  }
+
+  /**
+   * Gets the policy for handling incoming messages when the message queue
+   * is full.
+   *
+   * @return overflow policy.
+   */
+  public OverflowPolicy getQueueOverflowPolicy() {
+    return queue.getOverflowPolicy();
+  }
+
+  /**
+   * Enables/disables targeted wakeup of behaviors on message arrival. By default,
+   * every incoming message restarts all blocked behaviors, and each
+   * {@link MessageBehavior} re-checks the message queue. With targeted wakeup,
+   * each incoming message is matched once against the blocked message behaviors,
+   * and only the highest priority behavior that accepts it is restarted. Other
+   * blocked behaviors (e.g. those waiting for a timer) remain blocked.
+   * <p>
+   * Custom behaviors that block and poll the message queue on their own are not
+   * woken up by messages in this mode, and should use a {@link MessageBehavior}
+   * or {@link Behavior#restart()} instead.
+   *
+   * @param b true to enable targeted wakeup, false to restart all blocked behaviors.
+   */
+  public void setTargetedWakeup(boolean b) {
+    lock.lock();
+    try {
+      targetedWakeup = b;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Checks if targeted wakeup of behaviors is enabled.
+   *
+   * @return true if enabled, false otherwise.
+   * @see #setTargetedWakeup(boolean)
+   */
+  public boolean getTargetedWakeup() {
+    return targetedWakeup;
+  }
+
+  /**
+   * Splits the incoming message queue of the agent into priority lanes, so that
+   * control messages are not delayed behind a backlog of data messages. Each
+   * incoming message is placed in the lane given by its explicit priority
+   * ({@link Message#setPriority(Integer)}), or else the lane chosen by the
+   * lane selector (e.g. {@link LaneSelector#byPerformative(Performative...)}).
+   * Lane 0 has the highest priority. Messages without an explicit priority
+   * are placed in the lowest priority lane if no selector is given.
+   * <p>
+   * {@link #receive()} and message behaviors take messages from higher priority
+   * lanes first. To prevent starvation, after 16 consecutive messages from higher
+   * lanes while lower lanes wait, the oldest waiting message in a lower lane
+   * is taken. The lanes must be set before the agent is added to a container.
+   *
+   * @param lanes number of lanes.
+   * @param selector lane selector, or null to only use explicit message priorities.
+   */
+  public void setQueueLanes(int lanes, LaneSelector selector) {
+    setQueueLanes(lanes, selector, MessageIndex.DEFAULT_BURST);
+  }
+
+  /**
+   * Splits the incoming message queue of the agent into priority lanes.
+   *
+   * @param lanes number of lanes.
+   * @param selector lane selector, or null to only use explicit message priorities.
+   * @param burst maximum number of consecutive messages taken from higher lanes
+   *              while lower lanes wait, or 0 to disable starvation protection.
+   * @see #setQueueLanes(int, LaneSelector)
+   */
+  public void setQueueLanes(int lanes, LaneSelector selector, int burst) {
+    if (container != null) throw new FjageException("Message queue lanes must be set before agent is added to a container");
+    queue.setLanes(lanes, selector, burst);
+  }
+
+  /**
+   * Sets the message queue implementation used by the agent. By default, an
+   * agent uses a {@link MessageQueue} with a maximum length of 256. Agents that
+   * receive messages from many senders may benefit from a lock-free
+   * {@link MpscMessageQueue}. The queue must be set before the agent is added
+   * to a container.
+   *
+   * @param queue message queue to use.
+   */
+  public void setMessageQueue(AbstractMessageQueue queue) {
+    if (container != null) throw new FjageException("Message queue must be set before agent is added to a container");
+    this.queue = queue;
+  }
+
+  /**
+   * Gets the runtime metrics of the agent, such as message counts, mailbox depth,
+   * behavior execution times and request latencies.
+   *
+   * @return agent metrics.
+   */
+  public AgentMetrics getMetrics() {
+    return metrics;
+  }
+
   /**
    * Subscribes the agent to receive all messages sent to the given topic.
    *
@@ -736,73 +1094,204 @@ public class Agent implements Runnable, TimestampProvider, Messenger {
       if (cname != null && !cname.startsWith("@"))
         log = Logger.getLogger(getClass().getName()+"/"+container.getName());
     }
-    LogHandlerProxy.install(platform, log);
+    if (platform == null || platform.getLogTimestamps()) LogHandlerProxy.install(platform, log);
   }
 
   /**
    * Delivers a message to the agent.
    * Called by the container as needed.
+   *
+   * @return true if delivered (or dropped as per overflow policy), false if rejected.
    */
-  final void deliver(Message m) {
-    if (container == null) return;
-    log.finer("MSG "+m.getSender()+" > "+aid+"@"+tid+" : "+m.toString());
-    queue.add(container.autoclone(m));
-    synchronized (this) {
+  final boolean deliver(Message m) {
+    Container container = this.container;
+    if (container == null) return false;
+    if (log.isLoggable(Level.FINER)) log.finer("MSG "+m.getSender()+" > "+aid+"@"+tid+" : "+m.toString());
+    m = container.autoclone(m);
+    if (replied(m)) return true;
+    boolean wait = Thread.currentThread() != thread && mayWait() && platform instanceof RealTimePlatform;
+    if (!queue.add(m, wait)) {
+      if (log.isLoggable(Level.FINE)) log.fine("Message queue full, rejected "+m.getMessageID()+" from "+m.getSender());
+      return false;
+    }
+    metrics.received();
+    lock.lock();
+    try {
+      if (targetedWakeup) arrivals.add(m);
       restartBehaviors = true;
       unblocked = false;
       wake();
+    } finally {
+      lock.unlock();
     }
+    return true;
+  }
+
+  /**
+   * Delivers a batch of messages to the agent, locking the message queue and
+   * the agent once. Called by the container as needed.
+   *
+   * @return array with an entry for each message, true if delivered (or dropped
+   *         as per overflow policy), false if rejected.
+   */
+  final boolean[] deliverAll(List<Message> msgs) {
+    Container container = this.container;
+    if (container == null) return new boolean[msgs.size()];
+    boolean finer = log.isLoggable(Level.FINER);
+    List<Message> copies = new ArrayList<>(msgs.size());
+    int[] pos = null;     // positions of queued messages, if some were responses to async requests
+    for (int i = 0; i < msgs.size(); i++) {
+      Message m = msgs.get(i);
+      if (finer) log.finer("MSG "+m.getSender()+" > "+aid+"@"+tid+" : "+m.toString());
+      m = container.autoclone(m);
+      if (replied(m)) {
+        if (pos == null) {
+          pos = new int[msgs.size()];
+          for (int j = 0; j < copies.size(); j++)
+            pos[j] = j;
+        }
+        continue;
+      }
+      if (pos != null) pos[copies.size()] = i;
+      copies.add(m);
+    }
+    boolean wait = Thread.currentThread() != thread && mayWait() && platform instanceof RealTimePlatform;
+    boolean[] ok = copies.isEmpty() ? new boolean[0] : queue.addAll(copies, wait);
+    int n = 0;
+    for (boolean b: ok)
+      if (b) n++;
+    if (n < ok.length && log.isLoggable(Level.FINE)) log.fine("Message queue full, rejected "+(ok.length-n)+" messages");
+    if (n > 0) {
+      metrics.received(n);
+      lock.lock();
+      try {
+        if (targetedWakeup) {
+          for (int i = 0; i < ok.length; i++)
+            if (ok[i]) arrivals.add(copies.get(i));
+        }
+        restartBehaviors = true;
+        unblocked = false;
+        wake();
+      } finally {
+        lock.unlock();
+      }
+    }
+    if (pos == null) return ok;
+    boolean[] all = new boolean[msgs.size()];
+    Arrays.fill(all, true);
+    for (int i = 0; i < ok.length; i++)
+      all[pos[i]] = ok[i];
+    return all;
+  }
+
+  // completes a pending async request if the message is a response to it,
+  // in which case the message is not queued
+  private boolean replied(Message m) {
+    if (pending.isEmpty()) return false;
+    String id = m.getInReplyTo();
+    if (id == null) return false;
+    PendingReply p = pending.remove(id);
+    if (p == null) return false;
+    metrics.received();
+    p.reply(m);
+    return true;
   }
 
   // returns false if no pending behaviors, true otherwise
   private boolean executeBehavior() {
     // restart necessary blocked behaviors
+    List<Message> arrived = null;
     if (restartBehaviors) {
-      synchronized (this) {
+      lock.lock();
+      try {
         restartBehaviors = false;
-        activeBehaviors.addAll(blockedBehaviors);
-        blockedBehaviors.clear();
-        queue.commit(exclusions);
-      }
-    } else {
-      Iterator<Behavior> iterator = blockedBehaviors.iterator();
-      while (iterator.hasNext()) {
-        Behavior b = iterator.next();
-        if (!b.isBlocked()) {
-          iterator.remove();
-          activeBehaviors.add(b);
+        if (!targetedWakeup) {
+          scheduler.restartAll();
+          arrivals.clear();
+        } else if (!arrivals.isEmpty()) {
+          arrived = new ArrayList<>(arrivals);
+          arrivals.clear();
         }
+        queue.commit(exclusions);
+      } finally {
+        lock.unlock();
       }
+      if (arrived != null)
+        for (Message m: arrived)
+          dispatch(m);
     }
+    // reschedule behaviors restarted by other threads, or whose timeout expired
+    if (scheduler.hasRestarted()) scheduler.drain(this);
+    if (scheduler.hasTimers()) scheduler.expire(currentTimeMillis());
     try {
       // assimilate any new behaviors
       Behavior b = newBehaviors.poll();
       if (b != null) {
-        activeBehaviors.add(b);
+        scheduler.add(b);
         b.onStart();
         return true;
       }
       // execute an active behavior
-      b = activeBehaviors.poll();
+      b = scheduler.poll();
       if (b != null) {
         b.unblock();
-        b.action();
+        long t0 = System.nanoTime();
+        try {
+          b.action();
+        } finally {
+          metrics.behaviorRun(System.nanoTime() - t0);
+        }
         if (b.done()) {
           b.onEnd();
           b.setOwner(null);
-        } else {
-          if (b.isBlocked()) blockedBehaviors.add(b);
-          else activeBehaviors.add(b);
-        }
+        } else scheduler.place(b);
         return true;
       }
     } catch (Throwable ex) {
       if (ignoreExceptions) log.log(Level.WARNING, "Exception in agent: "+aid, ex);
       else throw(ex);
     }
-    synchronized (this) {
+    lock.lock();
+    try {
       return (newBehaviors.size() > 0);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  // restarts the highest priority blocked message behavior that accepts a
+  // message, used for targeted wakeup
+  private void dispatch(Message m) {
+    for (MessageFilter f: exclusions) {
+      if (f == null || f.matches(m)) {
+        // may be meant for an ongoing receive(), so decide after it completes
+        deferred.add(m);
+        return;
+      }
+    }
+    Behavior best = null;
+    for (Behavior b: scheduler.blocked()) {
+      if (best != null && b.getPriority() >= best.getPriority()) continue;
+      if (accepts(b, m)) best = b;
     }
+    if (best != null) {
+      best.unblock();
+      scheduler.wakeup(best);
+    }
+  }
+
+  // checks if a behavior waits for a message, and accepts it
+  private static boolean accepts(Behavior b, Message m) {
+    if (b instanceof MessageBehavior) return ((MessageBehavior)b).accepts(m);
+    if (b instanceof InternalRequestSender.StoppableMessageBehavior) return ((InternalRequestSender.StoppableMessageBehavior)b).accepts(m);
+    return false;
+  }
+
+  /**
+   * Gets the message queue of the agent.
+   */
+  final AbstractMessageQueue getMessageQueue() {
+    return queue;
   }
 
   /**
@@ -814,8 +1303,10 @@ public class Agent implements Runnable, TimestampProvider, Messenger {
   public final void run() {
     thread = Thread.currentThread();
     tid = thread.getId();
+    AgentLocalRandom.attach(this);
+    metrics.started();
     state = AgentState.RUNNING;
-    container.reportBusy(aid);
+    container.reportBusy(this);
     try {
       init();
       while (!container.isRunning()) {
@@ -830,21 +1321,189 @@ public class Agent implements Runnable, TimestampProvider, Messenger {
       log.log(Level.SEVERE, "Exception in agent: "+aid, ex);
       die(ex);
     }
+    terminate();
+    AgentLocalRandom.unbind();
+  }
+
+  /**
+   * Starts the agent on a shared executor, rather than on a dedicated thread.
+   * Called by the container as needed.
+   */
+  final void start(Executor executor) {
+    lock.lock();
+    try {
+      this.executor = executor;
+      scheduled = true;
+    } finally {
+      lock.unlock();
+    }
+    submit();
+  }
+
+  // checks if the current thread may wait for space in a message queue
+  private static boolean mayWait() {
+    if (noWait.get() != null || ForkJoinTask.inForkJoinPool()) return false;
+    return !AgentThreads.isVirtual(Thread.currentThread());
+  }
+
+  private void submit() {
+    try {
+      executor.execute(this::step);
+    } catch (RejectedExecutionException ex) {
+      log.warning("Agent "+aid+" could not be scheduled: "+ex.toString());
+    }
+  }
+
+  // runs a bounded number of behaviors on the current carrier thread, and then
+  // either yields the carrier by resubmitting itself, or parks until woken up
+  private void step() {
+    thread = Thread.currentThread();
+    tid = thread.getId();
+    noWait.set(Boolean.TRUE);
+    AgentLocalRandom.attach(this);
+    boolean parked = false;
+    boolean finished = false;
+    try {
+      if (!started) {
+        started = true;
+        metrics.started();
+        if (state == AgentState.INIT) state = AgentState.RUNNING;
+        container.reportBusy(this);
+        init();
+      }
+      int n = 0;
+      while (state != AgentState.FINISHING && n++ < STEP_BUDGET) {
+        if (!container.isRunning() || !executeBehavior()) {
+          parked = park();
+          if (parked) break;
+        }
+        Thread.interrupted(); // interrupts used for disrupting timeouts only
+      }
+      finished = state == AgentState.FINISHING;
+    } catch (Throwable ex) {
+      log.log(Level.SEVERE, "Exception in agent: "+aid, ex);
+      die(ex);
+      finished = true;
+    }
+    if (finished) {
+      terminate();
+      AgentLocalRandom.unbind(this);
+    }
+    tid = -1;
+    thread = null;
+    noWait.remove();
+    AgentLocalRandom.unbind();
+    lock.lock();
+    try {
+      if (finished) executor = null;
+      else if (parked && oldState != AgentState.NONE) scheduled = false;
+      else submit();    // budget exhausted, or woken up while parking
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  // equivalent of block() for agents on a shared executor, but marks the agent
+  // idle without waiting; returns false if there is pending work
+  private boolean park() {
+    lock.lock();
+    try {
+      if (state == AgentState.FINISHING) return false;
+      if (container.isRunning() && !newBehaviors.isEmpty()) return false;
+      if (!unblocked) {
+        unblocked = true;
+        if (restartBehaviors) return false;
+        if (scheduler.hasPending(currentTimeMillis())) return false;
+      }
+      unblocked = false;
+      if (!armTimer()) return false;
+      oldState = state;
+      state = AgentState.IDLE;
+      container.reportIdle(this);
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void terminate() {
+    lock.lock();
+    try {
+      if (timer != null) timer.cancel();
+      timer = null;
+      timerAt = -1;
+    } finally {
+      lock.unlock();
+    }
+    for (PendingReply p: pending.values())
+      p.abort();
     state = AgentState.RUNNING;
-    container.reportBusy(aid);
+    container.reportBusy(this);
     try {
       shutdown();
     } catch (Throwable ex) {
       log.log(Level.SEVERE, "Exception in agent: "+aid, ex);
     }
     state = AgentState.FINISHED;
-    container.reportIdle(aid);
+    container.reportIdle(this);
     container.kill(aid);
-    AgentLocalRandom.unbind();
     container = null;
     platform = null;
   }
 
+  // future for a response to an async request, completed by the thread that
+  // delivers the response or by the timeout timer
+  private final class PendingReply extends CompletableFuture<Message> {
+
+    final String id;
+    final long t0 = System.nanoTime();
+    volatile ScheduledTask timer = null;
+
+    PendingReply(String id) {
+      this.id = id;
+    }
+
+    void reply(Message rsp) {
+      cancelTimer();
+      metrics.requestCompleted(System.nanoTime() - t0);
+      complete(rsp);
+    }
+
+    void abort() {
+      if (!pending.remove(id, this)) return;
+      cancelTimer();
+      complete(null);
+    }
+
+    private void cancelTimer() {
+      ScheduledTask t = timer;
+      if (t != null) t.cancel();
+    }
+
+    void expire() {
+      if (!pending.remove(id, this)) return;
+      metrics.requestTimedOut();
+      Container container = Agent.this.container;
+      if (container instanceof SlaveContainer) {
+        try {
+          ((SlaveContainer)container).checkAuthFailure(id);
+        } catch (AuthFailureException ex) {
+          completeExceptionally(ex);
+          return;
+        }
+      }
+      complete(null);
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+      pending.remove(id, this);
+      cancelTimer();
+      return super.cancel(mayInterruptIfRunning);
+    }
+
+  }
+
   private class InternalRequestSender
       implements RequestSender {
 
@@ -1116,26 +1775,6 @@ public class Agent implements Runnable, TimestampProvider, Messenger {
       }
     }
 
-    private class ReplyMessageFilter
-        implements MessageFilter {
-
-      private final String messageId;
-
-      public ReplyMessageFilter(Message request) {
-        super();
-
-        messageId = request.getMessageID();
-        if (messageId == null) {
-          throw new IllegalArgumentException("Message does not have an ID");
-        }
-      }
-
-      @Override
-      public boolean matches(Message message) {
-        return ((message.getInReplyTo() != null) && message.getInReplyTo().equals(messageId));
-      }
-    }
-
     private class StoppableMessageBehavior
         extends Behavior {
 
@@ -1147,7 +1786,7 @@ public class Agent implements Runnable, TimestampProvider, Messenger {
       }
 
       public StoppableMessageBehavior(final Class<?> cls) {
-        this(cls::isInstance);
+        this(new ClassMessageFilter(cls));
       }
 
       public StoppableMessageBehavior(final MessageFilter filter) {
@@ -1157,6 +1796,9 @@ public class Agent implements Runnable, TimestampProvider, Messenger {
       }
 
       public boolean accepts(Message msg) {
+        if (quit) {
+          return false;
+        }
         if (filter == null) {
           return true;
         }
@@ -1171,6 +1813,9 @@ public class Agent implements Runnable, TimestampProvider, Messenger {
 
       @Override
       public final void action() {
+        if (quit) {
+          return;
+        }
         final Message msg;
         if (filter == null) {
           msg = agent.receive();
@@ -1186,6 +1831,8 @@ public class Agent implements Runnable, TimestampProvider, Messenger {
 
       public final void stop() {
         quit = true;
+        // wake up the behavior, so that it is removed even if no more messages arrive
+        restart();
       }
 
       @Override
@@ -10,17 +10,24 @@ for full license details.
 
 package org.arl.fjage;
 
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.Random;
-import java.util.logging.Logger;
 
 /**
  * Utility class for random number generation in simulations.
  *
  * This should be used in preference to java.util.Random to ensure that
  * simulations are repeatable by setting a random number seed.
+ * <p>
+ * Each agent holds its own generator, seeded from the root generator (or the
+ * platform's generator, see {@link Platform#setRandomSeed(long)}) when the agent
+ * is added to a container. An agent's generator is only used by the agent, and
+ * so it does not synchronize. Generators created using the public constructor
+ * are thread-safe.
+ * <p>
+ * By default, the generator uses the same linear congruential algorithm as
+ * {@link java.util.Random}, and so produces the same sequences for the same
+ * seeds. A faster xoshiro256** generator may be selected using
+ * {@link #setFastGenerator(boolean)}.
  */
 public class AgentLocalRandom extends Random {
 
@@ -28,10 +35,15 @@ public class AgentLocalRandom extends Random {
 
   //// static stuff
 
-  private static Logger log = Logger.getLogger(AgentLocalRandom.class.getName());
+  private static final long MULTIPLIER = 0x5DEECE66DL;
+  private static final long ADDEND = 0xBL;
+  private static final long MASK = (1L << 48) - 1;
+  private static final double DOUBLE_UNIT = 0x1.0p-53;
 
+  private static final ThreadLocal<AgentLocalRandom> local = new ThreadLocal<>();
+  private static volatile boolean fastGenerator = false;
+  private static volatile int epoch = 0;
   private static AgentLocalRandom root = new AgentLocalRandom();
-  private static Map<Object,AgentLocalRandom> rng = Collections.synchronizedMap(new HashMap<Object,AgentLocalRandom>());
 
   /**
    * Returns the current agent's AgentLocalRandom.
@@ -39,35 +51,34 @@ public class AgentLocalRandom extends Random {
    * @return current agent's random number generator.
    */
   public static AgentLocalRandom current() {
-    Thread tid = Thread.currentThread();
-    AgentLocalRandom r = rng.get(tid);
-    if (r != null) return r;
+    AgentLocalRandom r = local.get();
+    if (r != null && r.bound == epoch) return r;
     return root;
   }
 
   //// private operations for agent/container to use
 
+  static AgentLocalRandom root() {
+    return root;
+  }
+
   static void bind(Agent agent) {
-    AgentLocalRandom r = new AgentLocalRandom();
-    long seed = root.nextLong();
-    r.setSeed(seed);
-    rng.put(agent, r);
+    AgentLocalRandom r = new AgentLocalRandom(false);
+    Platform platform = agent.getPlatform();
+    r.setSeed((platform == null ? root : platform.getRandom()).nextLong());
+    agent.random = r;
   }
 
-  static void bind(Agent agent, Thread tid) {
-    AgentLocalRandom r = rng.get(agent);
-    if (r != null) {
-      rng.put(tid, r);
-      rng.remove(agent);
-    }
+  static void attach(Agent agent) {
+    local.set(agent.random);
   }
 
-  static void unbind(Thread tid) {
-    rng.remove(tid);
+  static void unbind(Agent agent) {
+    agent.random = null;
   }
 
   static void unbind() {
-    unbind(Thread.currentThread());
+    local.remove();
   }
 
   /**
@@ -78,11 +89,104 @@ public class AgentLocalRandom extends Random {
    */
   public static void setRootSeed(long seed) {
     root.setSeed(seed);
-    rng.clear();
+    epoch++;      // agents bound earlier fall back to the root generator
+  }
+
+  /**
+   * Selects the algorithm for generators created after this call. The fast
+   * xoshiro256** generator has a longer period and better statistical quality
+   * than the default linear congruential generator, but produces different
+   * sequences. Both algorithms are seeded from the root seed, so simulations
+   * remain repeatable.
+   *
+   * @param b true to use the xoshiro256** generator, false to use the default generator.
+   */
+  public static void setFastGenerator(boolean b) {
+    fastGenerator = b;
+  }
+
+  /**
+   * Checks if generators use the fast xoshiro256** algorithm.
+   *
+   * @return true if the fast generator is selected, false otherwise.
+   */
+  public static boolean getFastGenerator() {
+    return fastGenerator;
+  }
+
+  //// private attributes (no initializers, as Random's constructor calls setSeed())
+
+  private boolean shared;
+  private boolean fast;
+  private int bound;
+  private long lcg;
+  private long s0, s1, s2, s3;
+  private double nextNextGaussian;
+  private boolean haveNextNextGaussian;
+
+  //// constructors
+
+  /**
+   * Creates a thread-safe random number generator with a random seed.
+   */
+  public AgentLocalRandom() {
+    this(true);
+  }
+
+  private AgentLocalRandom(boolean shared) {
+    this.shared = shared;
+    fast = fastGenerator;
+    bound = epoch;
   }
 
   //// instance methods
 
+  @Override
+  public void setSeed(long seed) {
+    if (shared) {
+      synchronized (this) {
+        seed(seed);
+      }
+    } else seed(seed);
+  }
+
+  @Override
+  protected int next(int bits) {
+    if (shared) {
+      synchronized (this) {
+        return advance(bits);
+      }
+    }
+    return advance(bits);
+  }
+
+  @Override
+  public long nextLong() {
+    if (!fast) return super.nextLong();
+    if (shared) {
+      synchronized (this) {
+        return xoshiro();
+      }
+    }
+    return xoshiro();
+  }
+
+  @Override
+  public double nextDouble() {
+    if (!fast) return super.nextDouble();
+    return (nextLong() >>> 11) * DOUBLE_UNIT;
+  }
+
+  @Override
+  public double nextGaussian() {
+    if (shared) {
+      synchronized (this) {
+        return gaussian();
+      }
+    }
+    return gaussian();
+  }
+
   /**
    * Generates a random double.
    *
@@ -146,4 +250,97 @@ public class AgentLocalRandom extends Random {
     return Math.sqrt(Math.pow(nextGaussian()*sigma+nu,2) + Math.pow(nextGaussian()*sigma,2));
   }
 
+  /**
+   * Fills an array with Gaussian distributed random numbers.
+   *
+   * @param x array to fill.
+   * @param mu mean of the distribution.
+   * @param sigma2 variance of the distribution.
+   */
+  public void fillGaussian(double[] x, double mu, double sigma2) {
+    double sigma = Math.sqrt(sigma2);
+    for (int i = 0; i < x.length; i++)
+      x[i] = nextGaussian()*sigma + mu;
+  }
+
+  /**
+   * Fills an array with Rayleigh distributed random numbers.
+   *
+   * @param x array to fill.
+   * @param sigma scale parameter.
+   */
+  public void fillRayleigh(double[] x, double sigma) {
+    for (int i = 0; i < x.length; i++)
+      x[i] = Math.sqrt(-2*Math.log(nextDouble()))*sigma;
+  }
+
+  /**
+   * Fills an array with Rician distributed random numbers.
+   *
+   * @param x array to fill.
+   * @param nu location parameter.
+   * @param sigma scale parameter.
+   */
+  public void fillRician(double[] x, double nu, double sigma) {
+    for (int i = 0; i < x.length; i++) {
+      double a = nextGaussian()*sigma + nu;
+      double b = nextGaussian()*sigma;
+      x[i] = Math.sqrt(a*a + b*b);
+    }
+  }
+
+  //// private methods
+
+  private void seed(long seed) {
+    lcg = (seed ^ MULTIPLIER) & MASK;
+    long z = seed;
+    s0 = splitmix(z += 0x9E3779B97F4A7C15L);
+    s1 = splitmix(z += 0x9E3779B97F4A7C15L);
+    s2 = splitmix(z += 0x9E3779B97F4A7C15L);
+    s3 = splitmix(z + 0x9E3779B97F4A7C15L);
+    haveNextNextGaussian = false;
+  }
+
+  private static long splitmix(long z) {
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    return z ^ (z >>> 31);
+  }
+
+  private int advance(int bits) {
+    if (fast) return (int)(xoshiro() >>> (64-bits));
+    lcg = (lcg * MULTIPLIER + ADDEND) & MASK;
+    return (int)(lcg >>> (48-bits));
+  }
+
+  private long xoshiro() {
+    long result = Long.rotateLeft(s1 * 5, 7) * 9;
+    long t = s1 << 17;
+    s2 ^= s0;
+    s3 ^= s1;
+    s1 ^= s2;
+    s0 ^= s3;
+    s2 ^= t;
+    s3 = Long.rotateLeft(s3, 45);
+    return result;
+  }
+
+  // same polar method as java.util.Random, without synchronization
+  private double gaussian() {
+    if (haveNextNextGaussian) {
+      haveNextNextGaussian = false;
+      return nextNextGaussian;
+    }
+    double v1, v2, s;
+    do {
+      v1 = 2 * nextDouble() - 1;
+      v2 = 2 * nextDouble() - 1;
+      s = v1 * v1 + v2 * v2;
+    } while (s >= 1 || s == 0);
+    double multiplier = StrictMath.sqrt(-2 * StrictMath.log(s)/s);
+    nextNextGaussian = v2 * multiplier;
+    haveNextNextGaussian = true;
+    return v1 * multiplier;
+  }
+
 }
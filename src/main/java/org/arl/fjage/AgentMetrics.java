@@ -0,0 +1,208 @@
+/******************************************************************************
+
+Copyright (c) 2013, Mandar Chitre
+
+This file is part of fjage which is released under Simplified BSD License.
+See file LICENSE.txt or go to http://www.opensource.org/licenses/BSD-3-Clause
+for full license details.
+
+******************************************************************************/
+
+package org.arl.fjage;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runtime metrics of an agent. Every agent keeps counters of messages and
+ * behavior actions, and histograms of behavior execution time and request
+ * round-trip time. Updating the metrics costs a few counter increments and
+ * two calls to {@link System#nanoTime()} per behavior action, so they are
+ * always enabled.
+ * <p>
+ * The metrics are available through {@link Agent#getMetrics()}, as read-only
+ * automatic parameters of agents with a
+ * {@link org.arl.fjage.param.ParameterMessageBehavior} (e.g. "metrics.mailboxDepth"
+ * for {@link #getMailboxDepth()}), and as JMX MBeans if enabled on the container
+ * using {@link Container#setJmxEnabled(boolean)}.
+ *
+ * @author  Mandar Chitre
+ */
+public class AgentMetrics implements AgentMetricsMXBean {
+
+  /**
+   * Prefix for names of automatic metric parameters.
+   */
+  public static final String PREFIX = "metrics.";
+
+  ////////// Private attributes
+
+  private static final double NANOS_PER_MS = 1e6;
+
+  private final Agent agent;
+  private final LongAdder received = new LongAdder();
+  private final LongAdder sent = new LongAdder();
+  private final LongAdder busy = new LongAdder();
+  private final LongAdder timeouts = new LongAdder();
+  private final LatencyHistogram behaviorTime = new LatencyHistogram();
+  private final LatencyHistogram requestLatency = new LatencyHistogram();
+  private volatile long started = 0;
+
+  ////////// Interface methods
+
+  AgentMetrics(Agent agent) {
+    this.agent = agent;
+  }
+
+  @Override
+  public long getMessagesReceived() {
+    return received.sum();
+  }
+
+  @Override
+  public long getMessagesSent() {
+    return sent.sum();
+  }
+
+  @Override
+  public long getMessagesDropped() {
+    return agent.getMessageQueue().getDropped();
+  }
+
+  @Override
+  public long getMessagesRejected() {
+    return agent.getMessageQueue().getRejected();
+  }
+
+  @Override
+  public int getMailboxDepth() {
+    return agent.getMessageQueue().length();
+  }
+
+  @Override
+  public long getBehaviorRuns() {
+    return behaviorTime.count();
+  }
+
+  @Override
+  public double getBusyTime() {
+    return busy.sum() / NANOS_PER_MS;
+  }
+
+  @Override
+  public double getBlockedTime() {
+    long t0 = started;
+    if (t0 == 0) return 0;
+    return Math.max(0, System.nanoTime() - t0 - busy.sum()) / NANOS_PER_MS;
+  }
+
+  @Override
+  public double getBehaviorTimeMean() {
+    return behaviorTime.mean() / NANOS_PER_MS;
+  }
+
+  @Override
+  public double getBehaviorTimeP50() {
+    return behaviorTime.percentile(50) / NANOS_PER_MS;
+  }
+
+  @Override
+  public double getBehaviorTimeP99() {
+    return behaviorTime.percentile(99) / NANOS_PER_MS;
+  }
+
+  @Override
+  public double getBehaviorTimeMax() {
+    return behaviorTime.max() / NANOS_PER_MS;
+  }
+
+  @Override
+  public long getRequests() {
+    return requestLatency.count();
+  }
+
+  @Override
+  public long getRequestTimeouts() {
+    return timeouts.sum();
+  }
+
+  @Override
+  public double getRequestLatencyP50() {
+    return requestLatency.percentile(50) / NANOS_PER_MS;
+  }
+
+  @Override
+  public double getRequestLatencyP99() {
+    return requestLatency.percentile(99) / NANOS_PER_MS;
+  }
+
+  @Override
+  public double getRequestLatencyMax() {
+    return requestLatency.max() / NANOS_PER_MS;
+  }
+
+  /**
+   * Gets a metric by its parameter name.
+   *
+   * @param name parameter name (e.g. "metrics.mailboxDepth").
+   * @return value of the metric, or null if the name is not a metric.
+   */
+  public Object get(String name) {
+    if (name == null || !name.startsWith(PREFIX)) return null;
+    switch (name.substring(PREFIX.length())) {
+      case "messagesReceived":    return getMessagesReceived();
+      case "messagesSent":        return getMessagesSent();
+      case "messagesDropped":     return getMessagesDropped();
+      case "messagesRejected":    return getMessagesRejected();
+      case "mailboxDepth":        return getMailboxDepth();
+      case "behaviorRuns":        return getBehaviorRuns();
+      case "busyTime":            return getBusyTime();
+      case "blockedTime":         return getBlockedTime();
+      case "behaviorTimeMean":    return getBehaviorTimeMean();
+      case "behaviorTimeP50":     return getBehaviorTimeP50();
+      case "behaviorTimeP99":     return getBehaviorTimeP99();
+      case "behaviorTimeMax":     return getBehaviorTimeMax();
+      case "requests":            return getRequests();
+      case "requestTimeouts":     return getRequestTimeouts();
+      case "requestLatencyP50":   return getRequestLatencyP50();
+      case "requestLatencyP99":   return getRequestLatencyP99();
+      case "requestLatencyMax":   return getRequestLatencyMax();
+      default:                    return null;
+    }
+  }
+
+  ////////// Methods for agent to update metrics
+
+  void started() {
+    if (started == 0) started = System.nanoTime();
+  }
+
+  void received() {
+    received.increment();
+  }
+
+  void received(int n) {
+    received.add(n);
+  }
+
+  void sent() {
+    sent.increment();
+  }
+
+  void sent(int n) {
+    sent.add(n);
+  }
+
+  void behaviorRun(long nanos) {
+    busy.add(nanos);
+    behaviorTime.record(nanos);
+  }
+
+  void requestCompleted(long nanos) {
+    requestLatency.record(nanos);
+  }
+
+  void requestTimedOut() {
+    timeouts.increment();
+  }
+
+}
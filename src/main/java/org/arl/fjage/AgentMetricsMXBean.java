@@ -0,0 +1,143 @@
+/******************************************************************************
+
+Copyright (c) 2013, Mandar Chitre
+
+This file is part of fjage which is released under Simplified BSD License.
+See file LICENSE.txt or go to http://www.opensource.org/licenses/BSD-3-Clause
+for full license details.
+
+******************************************************************************/
+
+package org.arl.fjage;
+
+/**
+ * JMX management interface for agent runtime metrics. All times are in
+ * milliseconds.
+ *
+ * @author  Mandar Chitre
+ */
+public interface AgentMetricsMXBean {
+
+  /**
+   * Gets the number of messages delivered to the agent.
+   *
+   * @return message count.
+   */
+  public long getMessagesReceived();
+
+  /**
+   * Gets the number of messages sent by the agent.
+   *
+   * @return message count.
+   */
+  public long getMessagesSent();
+
+  /**
+   * Gets the number of messages dropped because the agent's message queue
+   * overflowed.
+   *
+   * @return message count.
+   */
+  public long getMessagesDropped();
+
+  /**
+   * Gets the number of messages rejected because the agent's message queue
+   * was full.
+   *
+   * @return message count.
+   */
+  public long getMessagesRejected();
+
+  /**
+   * Gets the number of messages waiting in the agent's message queue.
+   *
+   * @return message count.
+   */
+  public int getMailboxDepth();
+
+  /**
+   * Gets the number of behavior actions executed by the agent.
+   *
+   * @return action count.
+   */
+  public long getBehaviorRuns();
+
+  /**
+   * Gets the total time spent executing behavior actions.
+   *
+   * @return time in milliseconds.
+   */
+  public double getBusyTime();
+
+  /**
+   * Gets the total time since the agent started, not spent executing behavior
+   * actions, i.e. blocked or waiting for a thread.
+   *
+   * @return time in milliseconds.
+   */
+  public double getBlockedTime();
+
+  /**
+   * Gets the mean execution time of a behavior action.
+   *
+   * @return time in milliseconds.
+   */
+  public double getBehaviorTimeMean();
+
+  /**
+   * Gets the median execution time of a behavior action.
+   *
+   * @return time in milliseconds.
+   */
+  public double getBehaviorTimeP50();
+
+  /**
+   * Gets the 99th percentile execution time of a behavior action.
+   *
+   * @return time in milliseconds.
+   */
+  public double getBehaviorTimeP99();
+
+  /**
+   * Gets the longest execution time of a behavior action.
+   *
+   * @return time in milliseconds.
+   */
+  public double getBehaviorTimeMax();
+
+  /**
+   * Gets the number of requests made by the agent that received a response.
+   *
+   * @return request count.
+   */
+  public long getRequests();
+
+  /**
+   * Gets the number of requests made by the agent that timed out.
+   *
+   * @return request count.
+   */
+  public long getRequestTimeouts();
+
+  /**
+   * Gets the median request round-trip time.
+   *
+   * @return time in milliseconds.
+   */
+  public double getRequestLatencyP50();
+
+  /**
+   * Gets the 99th percentile request round-trip time.
+   *
+   * @return time in milliseconds.
+   */
+  public double getRequestLatencyP99();
+
+  /**
+   * Gets the longest request round-trip time.
+   *
+   * @return time in milliseconds.
+   */
+  public double getRequestLatencyMax();
+
+}
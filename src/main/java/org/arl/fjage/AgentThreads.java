@@ -0,0 +1,58 @@
+/******************************************************************************
+
+Copyright (c) 2013, Mandar Chitre
+
+This file is part of fjage which is released under Simplified BSD License.
+See file LICENSE.txt or go to http://www.opensource.org/licenses/BSD-3-Clause
+for full license details.
+
+******************************************************************************/
+
+package org.arl.fjage;
+
+/**
+ * Creates threads for agents to run on. This is the Java 8 implementation,
+ * which only supports platform threads. The multi-release jar provides a
+ * Java 21 implementation that also supports virtual threads.
+ */
+final class AgentThreads {
+
+  private AgentThreads() {
+    // static methods only
+  }
+
+  /**
+   * Checks if virtual threads are supported by the runtime.
+   *
+   * @return true if supported, false otherwise.
+   */
+  static boolean isVirtualSupported() {
+    return false;
+  }
+
+  /**
+   * Checks if a thread is a virtual thread.
+   *
+   * @param t thread to check.
+   * @return true if virtual, false otherwise.
+   */
+  static boolean isVirtual(Thread t) {
+    return false;
+  }
+
+  /**
+   * Creates an unstarted thread for an agent.
+   *
+   * @param agent agent to run on the thread.
+   * @param name name of the thread.
+   * @param virtual true to create a virtual thread, false for a platform thread.
+   * @return the thread.
+   */
+  static Thread newThread(Runnable agent, String name, boolean virtual) {
+    Thread t = new Thread(agent);
+    t.setName(name);
+    t.setDaemon(false);
+    return t;
+  }
+
+}
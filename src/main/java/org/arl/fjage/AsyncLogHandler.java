@@ -0,0 +1,315 @@
+/******************************************************************************
+
+Copyright (c) 2013, Mandar Chitre
+
+This file is part of fjage which is released under Simplified BSD License.
+See file LICENSE.txt or go to http://www.opensource.org/licenses/BSD-3-Clause
+for full license details.
+
+******************************************************************************/
+
+package org.arl.fjage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.ErrorManager;
+import java.util.logging.FileHandler;
+import java.util.logging.Formatter;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogManager;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+/**
+ * Asynchronous log handler. Log records are queued in a bounded queue, and a
+ * single writer thread publishes them to a delegate handler (such as a
+ * {@link FileHandler} with a {@link LogFormatter}) in batches, flushing once
+ * per batch. Threads that log therefore do not wait for log records to be
+ * formatted and written. When the queue is full, the overflow policy decides
+ * whether the logging thread waits ({@link OverflowPolicy#BLOCK}), or the new
+ * ({@link OverflowPolicy#DROP_NEWEST}) or oldest ({@link OverflowPolicy#DROP_OLDEST})
+ * log record is dropped. Since logging cannot fail, {@link OverflowPolicy#REJECT}
+ * is not supported.
+ * <p>
+ * The handler can be installed on the root logger using {@link #install(Logger)},
+ * in which case {@link LogHandlerProxy#install(TimestampProvider, Logger)} wraps
+ * the asynchronous handler, so that timestamps are still set on the logging
+ * thread. Alternatively, it can be configured in logging.properties:
+ * <pre>
+ * handlers=org.arl.fjage.AsyncLogHandler
+ * org.arl.fjage.AsyncLogHandler.delegate=java.util.logging.FileHandler
+ * org.arl.fjage.AsyncLogHandler.capacity=8192
+ * org.arl.fjage.AsyncLogHandler.overflow=BLOCK
+ * </pre>
+ *
+ * @author  Mandar Chitre
+ */
+public class AsyncLogHandler extends Handler {
+
+  ////////// Private attributes
+
+  private static final int DEFAULT_CAPACITY = 8192;
+  private static final int BATCH_SIZE = 256;
+  private static final long POLL_INTERVAL = 100;
+
+  private final Handler delegate;
+  private final BlockingQueue<LogRecord> queue;
+  private final OverflowPolicy policy;
+  private final AtomicLong queued = new AtomicLong();
+  private final AtomicLong dropped = new AtomicLong();
+  private final AtomicInteger publishing = new AtomicInteger();    // publish() calls past the closed check
+  private final Thread writer;
+  private volatile boolean closed = false;
+  private long written = 0;
+  private long reported = 0;
+
+  ////////// Interface methods
+
+  /**
+   * Creates an asynchronous log handler configured from logging properties.
+   * The delegate handler class, queue capacity and overflow policy are read from
+   * the "delegate", "capacity" and "overflow" properties prefixed by this class
+   * name. By default, a {@link FileHandler} delegate is used, with a queue of
+   * 8192 records and the {@link OverflowPolicy#BLOCK} policy.
+   *
+   * @throws ReflectiveOperationException if the delegate handler cannot be created.
+   */
+  public AsyncLogHandler() throws ReflectiveOperationException {
+    this((Handler)Class.forName(property("delegate", FileHandler.class.getName())).getDeclaredConstructor().newInstance(),
+      Integer.parseInt(property("capacity", Integer.toString(DEFAULT_CAPACITY))),
+      OverflowPolicy.valueOf(property("overflow", OverflowPolicy.BLOCK.name())));
+    String level = property("level", null);
+    if (level != null) setLevel(Level.parse(level));
+  }
+
+  /**
+   * Creates an asynchronous log handler with a queue of 8192 records, and the
+   * {@link OverflowPolicy#BLOCK} policy.
+   *
+   * @param delegate handler to publish log records to.
+   */
+  public AsyncLogHandler(Handler delegate) {
+    this(delegate, DEFAULT_CAPACITY, OverflowPolicy.BLOCK);
+  }
+
+  /**
+   * Creates an asynchronous log handler.
+   *
+   * @param delegate handler to publish log records to.
+   * @param capacity maximum number of queued log records.
+   * @param policy overflow policy when the queue is full.
+   * @throws IllegalArgumentException if the policy is {@link OverflowPolicy#REJECT}.
+   */
+  public AsyncLogHandler(Handler delegate, int capacity, OverflowPolicy policy) {
+    if (delegate == null) throw new NullPointerException("delegate must not be null");
+    if (policy == null) throw new NullPointerException("policy must not be null");
+    if (policy == OverflowPolicy.REJECT) throw new IllegalArgumentException("REJECT policy not supported for logging");
+    this.delegate = delegate;
+    this.policy = policy;
+    queue = new ArrayBlockingQueue<>(capacity);
+    writer = new Thread(this::writeLoop, "AsyncLogHandler");
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  /**
+   * Gets the handler that log records are published to.
+   *
+   * @return delegate handler.
+   */
+  public Handler getDelegate() {
+    return delegate;
+  }
+
+  /**
+   * Gets the number of log records dropped due to queue overflow.
+   *
+   * @return number of dropped log records.
+   */
+  public long getDropped() {
+    return dropped.get();
+  }
+
+  /**
+   * Queues a log record for publishing.
+   *
+   * @see java.util.logging.Handler#publish(java.util.logging.LogRecord)
+   */
+  @Override
+  public void publish(LogRecord rec) {
+    if (closed || !isLoggable(rec)) return;
+    rec.getSourceMethodName();      // caller must be inferred on the logging thread
+    publishing.incrementAndGet();
+    try {
+      if (!closed) enqueue(rec);    // re-checked, so that the writer sees this record before exiting
+    } finally {
+      publishing.decrementAndGet();
+    }
+  }
+
+  /**
+   * Waits for queued log records to be published, and flushes the delegate handler.
+   *
+   * @see java.util.logging.Handler#flush()
+   */
+  @Override
+  public void flush() {
+    long target = queued.get();
+    synchronized (this) {
+      while (written < target && writer.isAlive()) {
+        try {
+          wait(POLL_INTERVAL);
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+          break;
+        }
+      }
+    }
+    delegate.flush();
+  }
+
+  /**
+   * Publishes all queued log records, and closes the delegate handler.
+   *
+   * @see java.util.logging.Handler#close()
+   */
+  @Override
+  public void close() {
+    if (closed) return;
+    closed = true;
+    try {
+      writer.join();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+    delegate.close();
+  }
+
+  /**
+   * Sets the formatter of the delegate handler.
+   *
+   * @see java.util.logging.Handler#setFormatter(java.util.logging.Formatter)
+   */
+  @Override
+  public void setFormatter(Formatter f) {
+    delegate.setFormatter(f);
+  }
+
+  /**
+   * Gets the formatter of the delegate handler.
+   *
+   * @see java.util.logging.Handler#getFormatter()
+   */
+  @Override
+  public Formatter getFormatter() {
+    return delegate.getFormatter();
+  }
+
+  /**
+   * Replaces all handlers of a logger with asynchronous handlers that delegate
+   * to them.
+   *
+   * @param log logger to install on, null for root logger.
+   */
+  public static void install(Logger log) {
+    if (log == null) log = Logger.getLogger("");
+    for (Handler h: log.getHandlers()) {
+      if (h instanceof AsyncLogHandler || h instanceof LogHandlerProxy) continue;
+      log.removeHandler(h);
+      log.addHandler(new AsyncLogHandler(h));
+    }
+  }
+
+  ////////// Private methods
+
+  private static String property(String name, String def) {
+    String v = LogManager.getLogManager().getProperty(AsyncLogHandler.class.getName()+"."+name);
+    return v == null ? def : v.trim();
+  }
+
+  private void enqueue(LogRecord rec) {
+    queued.incrementAndGet();
+    switch (policy) {
+      case BLOCK:
+        boolean interrupted = false;
+        while (true) {
+          try {
+            queue.put(rec);
+            break;
+          } catch (InterruptedException ex) {
+            interrupted = true;
+          }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+        break;
+      case DROP_NEWEST:
+        if (!queue.offer(rec)) discard();
+        break;
+      case DROP_OLDEST:
+        while (!queue.offer(rec))
+          if (queue.poll() != null) discard();
+        break;
+    }
+  }
+
+  // counts a dropped log record, which is then no longer awaited by flush()
+  private void discard() {
+    dropped.incrementAndGet();
+    synchronized (this) {
+      written++;
+      notifyAll();
+    }
+  }
+
+  private void writeLoop() {
+    List<LogRecord> batch = new ArrayList<>(BATCH_SIZE);
+    while (true) {
+      LogRecord rec;
+      try {
+        rec = queue.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException ex) {
+        rec = null;
+      }
+      if (rec == null) {
+        if (closed && publishing.get() == 0 && queue.isEmpty()) break;
+        continue;
+      }
+      batch.add(rec);
+      queue.drainTo(batch, BATCH_SIZE-1);
+      long n = dropped.get();
+      if (n > reported) {
+        LogRecord warn = new LogRecord(Level.WARNING, "AsyncLogHandler dropped "+(n-reported)+" log records");
+        warn.setLoggerName(getClass().getName());
+        write(warn);
+        reported = n;
+      }
+      for (LogRecord r: batch)
+        write(r);
+      try {
+        delegate.flush();
+      } catch (Exception ex) {
+        reportError(null, ex, ErrorManager.FLUSH_FAILURE);
+      }
+      synchronized (this) {
+        written += batch.size();
+        notifyAll();
+      }
+      batch.clear();
+    }
+  }
+
+  private void write(LogRecord rec) {
+    try {
+      delegate.publish(rec);
+    } catch (Exception ex) {
+      reportError(null, ex, ErrorManager.WRITE_FAILURE);
+    }
+  }
+
+}
@@ -116,4 +116,9 @@ public class BackoffBehavior extends Behavior {
     super.reset();
     quit = false;
   }
+
+  @Override
+  boolean isTimerOnly() {
+    return true;
+  }
 }
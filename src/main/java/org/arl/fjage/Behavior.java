@@ -10,7 +10,6 @@ for full license details.
 
 package org.arl.fjage;
 
-import java.util.TimerTask;
 import java.util.logging.Logger;
 
 /**
@@ -55,6 +54,8 @@ public class Behavior implements Comparable<Behavior> {
   ////////////// Private attributes
 
   private volatile boolean blocked = false;
+  volatile long deadline = -1;        // platform time at which a timed block expires, -1 if none
+  int sched = BehaviorScheduler.NONE; // where the agent's scheduler holds the behavior, agent thread only
 
   ////////////// Methods for behaviors to override
 
@@ -135,13 +136,10 @@ public class Behavior implements Comparable<Behavior> {
    * @param millis number of milliseconds before the behavior should be unblocked.
    */
   public void block(long millis) {
+    Agent tmp = agent;
+    deadline = tmp.currentTimeMillis() + millis;
     blocked = true;
-    agent.getPlatform().schedule(new TimerTask() {
-      @Override
-      public void run() {
-        restart();
-      }
-    }, millis);
+    tmp.behaviorChanged(this);
   }
 
   /**
@@ -150,12 +148,13 @@ public class Behavior implements Comparable<Behavior> {
    * @see #block()
    */
   public void restart() {
+    deadline = -1;
     blocked = false;
-    // Use local variable to ensure that the `!= null` and `.wake()` run on the
-    // same value. Don't use `synchronized` block as that may deadlock with the
-    // `agent` lock required for `wake()`.
+    // Use local variable to ensure that the `!= null` and `.behaviorChanged()` run on
+    // the same value. Don't use `synchronized` block as that may deadlock with the
+    // `agent` lock required to wake it.
     Agent tmp = agent;
-    if (tmp != null) tmp.wake();
+    if (tmp != null) tmp.behaviorChanged(this);
   }
 
   /**
@@ -163,9 +162,19 @@ public class Behavior implements Comparable<Behavior> {
    * agent.
    */
   void unblock() {
+    deadline = -1;
     blocked = false;
   }
 
+  /**
+   * Returns true if the behavior only blocks to wait for a timeout, and need not
+   * be woken up by incoming messages. Used by the agent's scheduler to keep
+   * timer behaviors out of the way of message processing.
+   */
+  boolean isTimerOnly() {
+    return false;
+  }
+
   /**
    * Returns true if the behavior is blocked, false otherwise.
    *
@@ -179,7 +188,10 @@ public class Behavior implements Comparable<Behavior> {
    * Resets a behavior to its initial state.
    */
   public void reset() {
+    deadline = -1;
     blocked = false;
+    Agent tmp = agent;
+    if (tmp != null) tmp.behaviorChanged(this);
   }
 
   /**
@@ -0,0 +1,211 @@
+/******************************************************************************
+
+Copyright (c) 2013, Mandar Chitre
+
+This file is part of fjage which is released under Simplified BSD License.
+See file LICENSE.txt or go to http://www.opensource.org/licenses/BSD-3-Clause
+for full license details.
+
+******************************************************************************/
+
+package org.arl.fjage;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Internal class that schedules the behaviors of an agent. Ready behaviors are
+ * held in a FIFO run queue per priority value, so that behaviors with equal
+ * priority take turns. Behaviors blocked on a timeout are held in a heap ordered
+ * by deadline, and only the expired ones are visited when the agent wakes up.
+ * Behaviors that may be woken up by messages are held in a separate blocked set.
+ * <p>
+ * Apart from {@link #restarted(Behavior)} and {@link #hasRestarted()}, methods
+ * should only be called from the agent thread.
+ */
+final class BehaviorScheduler {
+
+  /////////// Behavior scheduling states
+
+  static final int NONE = 0;
+  static final int READY = 1;
+  static final int BLOCKED = 2;
+
+  /////////// Private attributes
+
+  private static final class Timeout implements Comparable<Timeout> {
+    final long at;
+    final Behavior b;
+    Timeout(long at, Behavior b) {
+      this.at = at;
+      this.b = b;
+    }
+    @Override
+    public int compareTo(Timeout t) {
+      return Long.compare(at, t.at);
+    }
+  }
+
+  private final TreeMap<Integer,ArrayDeque<Behavior>> ready = new TreeMap<>();
+  private final Set<Behavior> blocked = new LinkedHashSet<>();
+  private final PriorityQueue<Timeout> timers = new PriorityQueue<>();
+  private final Queue<Behavior> restarted = new ConcurrentLinkedQueue<>();
+  private int nready = 0;
+
+  /////////// Interface methods
+
+  /**
+   * Adds a behavior to the run queue for its priority.
+   */
+  void add(Behavior b) {
+    ready.computeIfAbsent(b.getPriority(), p -> new ArrayDeque<>()).add(b);
+    b.sched = READY;
+    nready++;
+  }
+
+  /**
+   * Removes and returns the highest priority ready behavior, or null if none.
+   */
+  Behavior poll() {
+    Map.Entry<Integer,ArrayDeque<Behavior>> e = ready.firstEntry();
+    if (e == null) return null;
+    ArrayDeque<Behavior> q = e.getValue();
+    Behavior b = q.poll();
+    if (q.isEmpty()) ready.remove(e.getKey());
+    b.sched = NONE;
+    nready--;
+    return b;
+  }
+
+  /**
+   * Places a behavior after its action has run, either in a run queue or in
+   * the blocked set and/or the timer heap.
+   */
+  void place(Behavior b) {
+    if (!b.isBlocked()) {
+      add(b);
+      return;
+    }
+    b.sched = BLOCKED;
+    long at = b.deadline;
+    if (at < 0 || !b.isTimerOnly()) blocked.add(b);
+    if (at >= 0) timers.add(new Timeout(at, b));
+  }
+
+  /**
+   * Updates the placement of a behavior that was restarted, reset or blocked
+   * while it was not running.
+   */
+  void changed(Behavior b) {
+    if (b.sched != BLOCKED) return;     // ready or running behaviors are placed after they run
+    if (b.isBlocked()) {
+      long at = b.deadline;
+      if (at >= 0) timers.add(new Timeout(at, b));
+    } else wakeup(b);
+  }
+
+  /**
+   * Records a behavior that was restarted, reset or blocked from another thread.
+   * Thread-safe.
+   */
+  void restarted(Behavior b) {
+    restarted.add(b);
+  }
+
+  /**
+   * Checks if behaviors were restarted from another thread. Thread-safe.
+   */
+  boolean hasRestarted() {
+    return !restarted.isEmpty();
+  }
+
+  /**
+   * Applies changes to behaviors restarted from other threads.
+   */
+  void drain(Agent agent) {
+    Behavior b;
+    while ((b = restarted.poll()) != null)
+      if (b.agent == agent) changed(b);
+  }
+
+  /**
+   * Moves all blocked behaviors that may be woken up by messages to the run
+   * queues. Behaviors only waiting for a timeout remain blocked.
+   */
+  void restartAll() {
+    if (blocked.isEmpty()) return;
+    Iterator<Behavior> it = blocked.iterator();
+    while (it.hasNext()) {
+      Behavior b = it.next();
+      it.remove();
+      add(b);
+    }
+  }
+
+  /**
+   * Moves behaviors whose timeout has expired to the run queues.
+   */
+  void expire(long now) {
+    Timeout t;
+    while ((t = timers.peek()) != null && t.at <= now) {
+      timers.poll();
+      Behavior b = t.b;
+      if (b.sched == BLOCKED && b.deadline == t.at) {
+        b.unblock();
+        wakeup(b);
+      }
+    }
+  }
+
+  /**
+   * Checks if there are behaviors ready to run, including those restarted from
+   * other threads or with an expired timeout.
+   */
+  boolean hasPending(long now) {
+    if (nready > 0 || !restarted.isEmpty()) return true;
+    purge();
+    Timeout t = timers.peek();
+    return t != null && t.at <= now;
+  }
+
+  /**
+   * Gets the earliest timeout of a blocked behavior, or -1 if none.
+   */
+  long nextDeadline() {
+    purge();
+    Timeout t = timers.peek();
+    return t == null ? -1 : t.at;
+  }
+
+  /**
+   * Checks if any behavior is waiting for a timeout.
+   */
+  boolean hasTimers() {
+    return !timers.isEmpty();
+  }
+
+  /**
+   * Gets the blocked behaviors that may be woken up by messages.
+   */
+  Collection<Behavior> blocked() {
+    return blocked;
+  }
+
+  /**
+   * Moves a blocked behavior to the run queues.
+   */
+  void wakeup(Behavior b) {
+    blocked.remove(b);
+    add(b);
+  }
+
+  /////////// Private methods
+
+  // drops timer entries for behaviors that are no longer waiting on them
+  private void purge() {
+    Timeout t;
+    while ((t = timers.peek()) != null && (t.b.sched != BLOCKED || t.b.deadline != t.at))
+      timers.poll();
+  }
+
+}
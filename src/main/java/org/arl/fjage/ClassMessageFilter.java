@@ -0,0 +1,46 @@
+/******************************************************************************
+
+Copyright (c) 2013, Mandar Chitre
+
+This file is part of fjage which is released under Simplified BSD License.
+See file LICENSE.txt or go to http://www.opensource.org/licenses/BSD-3-Clause
+for full license details.
+
+******************************************************************************/
+
+package org.arl.fjage;
+
+/**
+ * Message filter that selects messages of a given class (or its subclasses).
+ * Message queues index messages by class, and so this filter is matched
+ * without scanning the whole queue.
+ */
+public final class ClassMessageFilter implements MessageFilter {
+
+  private final Class<?> cls;
+
+  /**
+   * Creates a filter to select messages of a given class.
+   *
+   * @param cls message class to select.
+   */
+  public ClassMessageFilter(Class<?> cls) {
+    if (cls == null) throw new IllegalArgumentException("Message class is null");
+    this.cls = cls;
+  }
+
+  /**
+   * Gets the message class to select.
+   *
+   * @return message class.
+   */
+  public Class<?> getMessageClass() {
+    return cls;
+  }
+
+  @Override
+  public boolean matches(Message m) {
+    return cls.isInstance(m);
+  }
+
+}
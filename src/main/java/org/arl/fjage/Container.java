@@ -11,12 +11,16 @@ for full license details.
 package org.arl.fjage;
 
 import java.io.Serializable;
+import java.lang.management.ManagementFactory;
 import java.lang.reflect.*;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.*;
 import java.util.logging.Logger;
 import java.util.logging.Level;
+import javax.management.*;
 
 /**
  * Container to manage agent lifecycle. Agents in a container are able to
@@ -37,6 +41,7 @@ public class Container {
 
   public static final String SERIAL_CLONER = "org.apache.commons.lang3.SerializationUtils";
   public static final String FAST_CLONER = "com.rits.cloning.Cloner";
+  public static final String COPY_CLONER = "org.arl.fjage.DeepCopier";
 
   //////////// Private attributes
 
@@ -47,17 +52,27 @@ public class Container {
   protected Platform platform;
   protected final Map<AgentID,Agent> agents = new ConcurrentHashMap<>();
   protected Map<AgentID,Agent> agentsToAdd = new ConcurrentHashMap<>();
-  protected Map<AgentID,Set<Agent>> topics = new HashMap<>();
-  protected Map<String,Set<AgentID>> services = new HashMap<>();
+  protected Map<AgentID,Set<Agent>> topics = new ConcurrentHashMap<>();       // immutable subscriber sets
+  protected Map<String,Set<AgentID>> services = new ConcurrentHashMap<>();   // immutable provider sets
   protected Logger log = Logger.getLogger(getClass().getName());
   protected volatile boolean running = false;
   protected boolean initing = false;
   protected volatile boolean inited = false;
   protected Object cloner;
   protected Method doClone;
+  private boolean copier = false;
   protected boolean autoclone = false;
-  protected final Set<AgentID> idle = new HashSet<>();
-  protected final Set<MessageListener> listeners = new HashSet<>();
+  private final AtomicInteger nIdle = new AtomicInteger();   // number of idle agents
+  private final Object initSync = new Object();
+  protected final Set<MessageListener> listeners = new CopyOnWriteArraySet<>();
+  protected Executor executor = null;
+  private final Map<AgentID,Set<AgentID>> subscriptions = new HashMap<>();    // agent -> topics
+  private final Map<AgentID,Set<String>> registrations = new HashMap<>();     // agent -> services
+  private final AtomicLong routingVersion = new AtomicLong();
+  protected boolean virtualThreads = false;
+  private volatile MessageTracer tracer = null;
+  private volatile boolean jmx = false;
+  private final Map<AgentID,ObjectName> mbeans = new ConcurrentHashMap<>();  // agent -> registered MBean name
 
   //////////// Interface methods
 
@@ -112,6 +127,12 @@ public class Container {
    */
   public void setName(String name) {
     this.name = name;
+    if (jmx) {
+      for (Agent a: agents.values()) {
+        unregisterMBean(a.getAgentID());
+        registerMBean(a);
+      }
+    }
   }
 
   /**
@@ -124,19 +145,27 @@ public class Container {
   }
 
   /**
-   * Sets the cloner to use for deep cloning. Two cloners are currently supported:
+   * Sets the cloner to use for deep cloning. Three cloners are currently supported:
    * <ul>
    * <li>SERIAL_CLONER -- Cloner using serialization (default)
    *     (requires <a href="http://commons.apache.org/lang/">Apache commons-lang</a> v3)
    * <li>FAST_CLONER -- Fast but Groovy incompatible cloner
    *     (requires <a href="http://code.google.com/p/cloning/">Java deep cloning library</a>)
+   * <li>COPY_CLONER -- Fast cloner with the same semantics as SERIAL_CLONER, that
+   *     generates copy code once per message class, and falls back to serialization
+   *     for classes with custom serialization
    * </ul>
    *
    * @param name name of the cloner to use.
    */
   public void setCloner(String name) {
+    copier = false;
     try {
-      if (name.equals(SERIAL_CLONER)) {
+      if (name.equals(COPY_CLONER)) {
+        cloner = null;
+        doClone = DeepCopier.class.getDeclaredMethod("copy", Object.class);
+        copier = true;
+      } else if (name.equals(SERIAL_CLONER)) {
         cloner = null;
         doClone = Class.forName(SERIAL_CLONER).getDeclaredMethod("clone", Serializable.class);
       } else if (name.equals(FAST_CLONER)) {
@@ -166,7 +195,9 @@ public class Container {
   @SuppressWarnings("unchecked")
   public <T extends Serializable> T clone(T obj) {
     if (doClone == null) throw new FjageException("Cloner unavailable");
+    if (obj instanceof Message) ((Message)obj).getMessageID();    // clone shares the message id
     try {
+      if (copier) return (T)DeepCopier.copy(obj);
       return (T)doClone.invoke(cloner, obj);
     } catch (Exception ex) {
       log.log(Level.WARNING, "Cloning failed: "+ ex, ex);
@@ -176,6 +207,8 @@ public class Container {
 
   /**
    * Enables or disables autocloning. Autocloning is disabled by default.
+   * When enabled, each recipient gets its own copy of a message, except for
+   * messages that implement {@link ImmutableMessage}.
    *
    * @param b true to enable autocloning, false to disable it.
    */
@@ -192,6 +225,110 @@ public class Container {
     return autoclone;
   }
 
+  /**
+   * Sets a message tracer to record messages delivered by this container. When
+   * no tracer is set, tracing adds no overhead to message delivery. The tracer
+   * is not closed when the container shuts down.
+   *
+   * @param tracer message tracer, or null to disable tracing.
+   */
+  public void setMessageTracer(MessageTracer tracer) {
+    this.tracer = tracer;
+  }
+
+  /**
+   * Gets the message tracer for this container.
+   *
+   * @return message tracer, or null if tracing is disabled.
+   */
+  public MessageTracer getMessageTracer() {
+    return tracer;
+  }
+
+  /**
+   * Enables or disables registration of agent metrics as JMX MBeans. When
+   * enabled, the {@link AgentMetrics} of each agent in the container is
+   * registered with the platform MBean server under the name
+   * "org.arl.fjage:type=Agent,container=<i>container</i>,name=<i>agent</i>",
+   * and unregistered when the agent terminates. If the name is already in use,
+   * for example by another container with the same name, a warning is logged
+   * and the agent is not registered. Disabled by default.
+   *
+   * @param b true to register agent metrics with JMX, false otherwise.
+   */
+  public void setJmxEnabled(boolean b) {
+    if (b == jmx) return;
+    jmx = b;
+    for (Agent a: agents.values()) {
+      if (b) registerMBean(a);
+      else unregisterMBean(a.getAgentID());
+    }
+  }
+
+  /**
+   * Returns whether agent metrics are registered as JMX MBeans.
+   *
+   * @return true if JMX registration is enabled, false otherwise.
+   */
+  public boolean getJmxEnabled() {
+    return jmx;
+  }
+
+  /**
+   * Sets an executor to run agents on. By default, each agent runs on its own
+   * dedicated thread. If an executor is set, agents are instead run as short
+   * tasks on the executor, and release their thread whenever they are idle.
+   * This allows a large number of mostly idle agents to share a small pool
+   * of threads. A {@link ForkJoinPool} is recommended, as it can compensate
+   * for agents that block within a behavior (e.g. during a
+   * {@link Agent#request(Message, long)}). The executor may be shared between
+   * containers, but must be set before the container is started.
+   *
+   * @param executor executor to run agents on, or null for a thread per agent.
+   */
+  public void setExecutor(Executor executor) {
+    if (running || initing) throw new FjageException("Executor cannot be changed after container is started");
+    this.executor = executor;
+  }
+
+  /**
+   * Gets the executor that agents run on.
+   *
+   * @return executor, or null if each agent runs on its own thread.
+   */
+  public Executor getExecutor() {
+    return executor;
+  }
+
+  /**
+   * Enables or disables running agents on virtual threads. Virtual threads
+   * require a Java 21 (or later) runtime, and allow a very large number of
+   * agents to block without each holding on to a platform thread. On older
+   * runtimes, this setting is ignored and agents run on platform threads.
+   * The setting does not apply if an executor is set using
+   * {@link #setExecutor(Executor)}, and must be set before the container is
+   * started.
+   *
+   * @param b true to run agents on virtual threads, false for platform threads.
+   */
+  public void setVirtualThreads(boolean b) {
+    if (running || initing) throw new FjageException("Thread type cannot be changed after container is started");
+    if (b && !AgentThreads.isVirtualSupported()) {
+      log.warning("Virtual threads not supported by runtime, using platform threads");
+      b = false;
+    }
+    virtualThreads = b;
+  }
+
+  /**
+   * Returns whether agents run on virtual threads.
+   *
+   * @return true if agents run on virtual threads, false otherwise.
+   */
+  public boolean getVirtualThreads() {
+    return virtualThreads;
+  }
+
   /**
    * Adds an agent to the container.
    * <p>
@@ -221,16 +358,17 @@ public class Container {
       return null;
     }
     agent.bind(aid, this);
-    if (initing) agentsToAdd.put(aid, agent);
-    else agents.put(aid, agent);
+    agent.idleState.set(Agent.BUSY);
+    if (initing) {
+      agentsToAdd.put(aid, agent);
+      synchronized (initSync) {
+        initSync.notifyAll();
+      }
+    } else agents.put(aid, agent);
+    routingVersion.incrementAndGet();
     AgentLocalRandom.bind(agent);
-    if (running) {
-      Thread t = new Thread(agent);
-      t.setName(name);
-      t.setDaemon(false);
-      AgentLocalRandom.bind(agent, t);
-      t.start();
-    }
+    if (jmx) registerMBean(agent);
+    if (running) startAgent(agent);
     return aid;
   }
 
@@ -298,12 +436,15 @@ public class Container {
       Agent agent = agents.get(aid);
       if (agent == null) return false;
       agent.stop();
-      agents.remove(aid);
-      idle.remove(aid);
       unsubscribe(aid);
       deregister(aid);
+      agents.remove(aid);
+      if (agent.idleState.getAndSet(Agent.REMOVED) == Agent.IDLE) nIdle.decrementAndGet();
+      routingVersion.incrementAndGet();
       notify();   // if we are waiting for shutdown
     }
+    if (jmx) unregisterMBean(aid);
+    if (running && isIdle()) platform.idle();
     return true;
   }
 
@@ -326,9 +467,7 @@ public class Container {
    * @return true if successfully added, false otherwise.
    */
   public boolean addListener(MessageListener listener) {
-    synchronized (listeners) {
-      return listeners.add(listener);
-    }
+    return listeners.add(listener);
   }
 
   /**
@@ -338,9 +477,7 @@ public class Container {
    * @return true if successfully removed, false otherwise.
    */
   public boolean removeListener(MessageListener listener) {
-    synchronized (listeners) {
-      return listeners.remove(listener);
-    }
+    return listeners.remove(listener);
   }
 
   /**
@@ -366,26 +503,57 @@ public class Container {
   public boolean send(Message m, boolean relay) {
     if (relay) log.warning("Container does not support relaying");
     if (m.getSentAt() == null) m.setSentAt(platform.currentTimeMillis());
-    synchronized (listeners) {
-      for (MessageListener listener: listeners)
-        if (listener.onReceive(m)) return true;
-    }
+    for (MessageListener listener: listeners)
+      if (listener.onReceive(m)) return true;
     AgentID aid = m.getRecipient();
     if (aid == null) return false;
-    if (aid.isTopic()) {
-      synchronized (this) {
-        Set<Agent> subscribers = topics.get(aid);
-        if (subscribers != null) {
-          for (Agent a: subscribers)
-            a.deliver(m);
-        }
-      }
-    } else {
-      Agent a = getAgent(aid);
-      if (a == null) return false;
-      a.deliver(m);
-    }
-    return true;
+    if (platform.defer(this, m)) return aid.isTopic() || getAgent(aid) != null;
+    return deliver(m);
+  }
+
+  /**
+   * Sends a batch of messages. Messages are grouped by recipient, so that each
+   * recipient agent or topic is looked up once, and each recipient's message
+   * queue is locked once for the batch. In case of associated remote
+   * containers, messages are only delivered to agents in this container.
+   * Messages to the same recipient are delivered in order, but no order is
+   * guaranteed between messages to different recipients.
+   *
+   * @param msgs messages to deliver.
+   * @return number of messages delivered.
+   */
+  public int sendAll(Collection<? extends Message> msgs) {
+    return sendAll(msgs, false);
+  }
+
+  /**
+   * Sends a batch of messages.
+   *
+   * @param msgs messages to deliver.
+   * @param relay enable relaying to associated remote containers.
+   * @return number of messages delivered.
+   * @see #sendAll(Collection)
+   */
+  public int sendAll(Collection<? extends Message> msgs, boolean relay) {
+    if (relay) log.warning("Container does not support relaying");
+    int n = 0;
+    for (boolean b: sendLocal(new ArrayList<>(msgs)))
+      if (b) n++;
+    return n;
+  }
+
+  /**
+   * Gets the number of messages that an agent in this container can accept
+   * before its message queue is full.
+   *
+   * @param aid id of the agent.
+   * @return number of messages, {@link Integer#MAX_VALUE} if the agent's queue
+   *         is unbounded, or -1 if the agent is not in this container.
+   */
+  public int getCredit(AgentID aid) {
+    Agent a = getAgent(aid);
+    if (a == null) return -1;
+    return a.getMessageQueue().getCredit();
   }
 
   /**
@@ -402,8 +570,12 @@ public class Container {
       log.warning("Unable to subscribe unknown agent "+aid+" to topic "+topic);
       return false;
     }
-    Set<Agent> subscribers = topics.computeIfAbsent(topic, k -> new HashSet<>());
-    subscribers.add(agent);
+    Set<Agent> subscribers = topics.get(topic);
+    if (subscribers == null || !subscribers.contains(agent)) {
+      topics.put(topic, with(subscribers, agent));
+      subscriptions.computeIfAbsent(aid, k -> new HashSet<>()).add(topic);
+      if (subscribers == null) routingVersion.incrementAndGet();
+    }
     return true;
   }
 
@@ -419,8 +591,14 @@ public class Container {
     Agent agent = agents.get(aid);
     if (agent == null) return false;
     Set<Agent> subscribers = topics.get(topic);
-    if (subscribers == null) return false;
-    return subscribers.remove(agent);
+    if (subscribers == null || !subscribers.contains(agent)) return false;
+    removeSubscriber(topic, subscribers, agent);
+    Set<AgentID> subscribed = subscriptions.get(aid);
+    if (subscribed != null) {
+      subscribed.remove(topic);
+      if (subscribed.isEmpty()) subscriptions.remove(aid);
+    }
+    return true;
   }
 
   /**
@@ -431,9 +609,11 @@ public class Container {
   public synchronized void unsubscribe(AgentID aid) {
     Agent agent = agents.get(aid);
     if (agent == null) return;
-    for (AgentID topic: topics.keySet()) {
+    Set<AgentID> subscribed = subscriptions.remove(aid);
+    if (subscribed == null) return;
+    for (AgentID topic: subscribed) {
       Set<Agent> subscribers = topics.get(topic);
-      subscribers.remove(agent);
+      if (subscribers != null && subscribers.contains(agent)) removeSubscriber(topic, subscribers, agent);
     }
   }
 
@@ -445,8 +625,11 @@ public class Container {
    * @return true on success, false on failure.
    */
   public synchronized boolean register(AgentID aid, String service) {
-    Set<AgentID> providers = services.computeIfAbsent(service, k -> new HashSet<>());
-    providers.add(aid);
+    Set<AgentID> providers = services.get(service);
+    if (providers == null || !providers.contains(aid)) {
+      services.put(service, with(providers, aid));
+      registrations.computeIfAbsent(aid, k -> new HashSet<>()).add(service);
+    }
     return true;
   }
 
@@ -455,7 +638,7 @@ public class Container {
    *
    * @return an array of service names.
    */
-  public synchronized String[] getServices() {
+  public String[] getServices() {
     Set<String> svc = services.keySet();
     return svc.toArray(new String[0]);
   }
@@ -466,7 +649,7 @@ public class Container {
    * @param service name of the service.
    * @return agent id for service provider, null if none found.
    */
-  public synchronized AgentID agentForService(String service) {
+  public AgentID agentForService(String service) {
     Set<AgentID> providers = services.get(service);
     if (providers == null || providers.isEmpty()) return null;
     return providers.iterator().next();
@@ -478,7 +661,7 @@ public class Container {
    * @param service name of the service.
    * @return an array of agent ids for service providers, null if none found.
    */
-  public synchronized AgentID[] agentsForService(String service) {
+  public AgentID[] agentsForService(String service) {
     Set<AgentID> providers = services.get(service);
     if (providers == null || providers.isEmpty()) return null;
     return providers.toArray(new AgentID[0]);
@@ -493,8 +676,14 @@ public class Container {
    */
   public synchronized boolean deregister(AgentID aid, String service) {
     Set<AgentID> providers = services.get(service);
-    if (providers == null) return false;
-    return providers.remove(aid);
+    if (providers == null || !providers.contains(aid)) return false;
+    services.put(service, without(providers, aid));
+    Set<String> registered = registrations.get(aid);
+    if (registered != null) {
+      registered.remove(service);
+      if (registered.isEmpty()) registrations.remove(aid);
+    }
+    return true;
   }
 
   /**
@@ -503,9 +692,91 @@ public class Container {
    * @param aid id of agent to deregister.
    */
   public synchronized void deregister(AgentID aid) {
-    for (String service: services.keySet()) {
+    Set<String> registered = registrations.remove(aid);
+    if (registered == null) return;
+    for (String service: registered) {
       Set<AgentID> providers = services.get(service);
-      providers.remove(aid);
+      if (providers != null && providers.contains(aid)) services.put(service, without(providers, aid));
+    }
+  }
+
+  /**
+   * Gets a version number that changes whenever the set of agents in the
+   * container, or the set of topics with subscribers in the container, changes.
+   * Subclasses may use this to avoid recomputing routing information that
+   * has not changed.
+   *
+   * @return routing version number.
+   */
+  protected long getRoutingVersion() {
+    return routingVersion.get();
+  }
+
+  // removes a subscriber from a topic, dropping the topic once it has no subscribers
+  private void removeSubscriber(AgentID topic, Set<Agent> subscribers, Agent agent) {
+    if (subscribers.size() > 1) topics.put(topic, without(subscribers, agent));
+    else {
+      topics.remove(topic);
+      routingVersion.incrementAndGet();
+    }
+  }
+
+  /**
+   * Returns an immutable copy of a subscriber or provider set, with an element added.
+   * Topic and service tables are updated copy-on-write under the container lock,
+   * so that they may be read without locking.
+   */
+  private static <T> Set<T> with(Set<T> set, T x) {
+    Set<T> copy = (set == null) ? new HashSet<>() : new HashSet<>(set);
+    copy.add(x);
+    return Collections.unmodifiableSet(copy);
+  }
+
+  /**
+   * Returns an immutable copy of a subscriber or provider set, with an element removed.
+   */
+  private static <T> Set<T> without(Set<T> set, T x) {
+    Set<T> copy = new HashSet<>(set);
+    copy.remove(x);
+    return Collections.unmodifiableSet(copy);
+  }
+
+  /**
+   * Gets the JMX object name for the metrics of an agent.
+   */
+  private ObjectName mbeanName(AgentID aid) throws MalformedObjectNameException {
+    return new ObjectName("org.arl.fjage:type=Agent,container="+ObjectName.quote(String.valueOf(name))+",name="+ObjectName.quote(aid.getName()));
+  }
+
+  /**
+   * Registers the metrics of an agent with the platform MBean server.
+   */
+  private void registerMBean(Agent agent) {
+    AgentID aid = agent.getAgentID();
+    if (mbeans.containsKey(aid)) return;
+    try {
+      MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+      ObjectName on = mbeanName(aid);
+      mbs.registerMBean(agent.getMetrics(), on);
+      mbeans.put(aid, on);
+    } catch (InstanceAlreadyExistsException ex) {
+      log.warning("Could not register metrics MBean for "+aid+": name already in use by another container");
+    } catch (JMException | RuntimeException ex) {
+      log.warning("Could not register metrics MBean for "+agent.getAgentID()+": "+ex.toString());
+    }
+  }
+
+  /**
+   * Unregisters the metrics of an agent from the platform MBean server.
+   */
+  private void unregisterMBean(AgentID aid) {
+    ObjectName on = mbeans.remove(aid);
+    if (on == null) return;
+    try {
+      MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+      if (mbs.isRegistered(on)) mbs.unregisterMBean(on);
+    } catch (JMException | RuntimeException ex) {
+      log.fine("Could not unregister metrics MBean for "+aid+": "+ex.toString());
     }
   }
 
@@ -516,53 +787,65 @@ public class Container {
   void init() {
     if (!running) {
       log.info("Initializing agents...");
+      long t0 = System.nanoTime();
       initing = true;
       synchronized (agents) {
         SortedSet<AgentID> keys = new TreeSet<>(agents.keySet());
         for (AgentID aid: keys) {
           log.fine("Starting agent "+aid);
-          Agent a = agents.get(aid);
-          Thread t = new Thread(a);
-          t.setName(a.getName());
-          t.setDaemon(false);
-          AgentLocalRandom.bind(a, t);
-          t.start();
+          startAgent(agents.get(aid));
         }
       }
       log.fine("Waiting for agents...");
       do {
-        try {
-          Thread.sleep(100);
-        } catch (InterruptedException ex) {
-          log.warning("Init interrupted!");
-          Thread.currentThread().interrupt();
-          initing = false;
-          return;
+        // woken up by reportIdle() or by agents added during initialization
+        synchronized (initSync) {
+          while (agentsToAdd.isEmpty() && !isIdle()) {
+            try {
+              initSync.wait();
+            } catch (InterruptedException ex) {
+              log.warning("Init interrupted!");
+              Thread.currentThread().interrupt();
+              initing = false;
+              return;
+            }
+          }
         }
         if (!agentsToAdd.isEmpty()) {
           synchronized (agents) {
-            agents.putAll(agentsToAdd);
             SortedSet<AgentID> keys = new TreeSet<>(agentsToAdd.keySet());
             for (AgentID aid: keys) {
+              agents.put(aid, agentsToAdd.remove(aid));
               log.fine("Starting agent "+aid);
-              Agent a = agents.get(aid);
-              Thread t = new Thread(a);
-              t.setName(a.getName());
-              t.setDaemon(false);
-              AgentLocalRandom.bind(a, t);
-              t.start();
+              startAgent(agents.get(aid));
             }
-            agentsToAdd.clear();
+            routingVersion.incrementAndGet();   // agents now show up in getAgents()
           }
         }
-      } while (!isIdle());
+      } while (!agentsToAdd.isEmpty() || !isIdle());
       initing = false;
       inited = true;
+      long t1 = System.nanoTime();
       log.info("Agents ready...");
       initComplete();
+      long t2 = System.nanoTime();
+      log.fine("Startup timing: agents "+(t1-t0)/1000000+" ms, initComplete "+(t2-t1)/1000000+" ms");
     }
   }
 
+  /**
+   * Starts an agent, either on its own (platform or virtual) thread, or on the
+   * container's executor if one is set.
+   */
+  private void startAgent(Agent agent) {
+    if (executor != null) {
+      agent.start(executor);
+      return;
+    }
+    Thread t = AgentThreads.newThread(agent, agent.getName(), virtualThreads);
+    t.start();
+  }
+
   /**
    * Called when the container is initialized.
    * This is called after all agents have been initialized.
@@ -571,6 +854,17 @@ public class Container {
     // do nothing - for subclasses to catch event
   }
 
+  /**
+   * Called after all containers on the platform have been initialized, and
+   * before any of them is started. Containers that depend on other containers,
+   * such as the peers of a remote connection, wait for them here rather than in
+   * {@link #initComplete()}, so that containers on the same platform do not
+   * hold up each other's initialization.
+   */
+  protected void awaitReady() {
+    // do nothing - for subclasses to wait on
+  }
+
   /**
    * Starts the container and all agents in it.
    * This should be called after init().
@@ -606,7 +900,7 @@ public class Container {
               log.warning("Shutdown interrupted!");
               Thread.currentThread().interrupt();
               agents.clear();
-              idle.clear();
+              nIdle.set(0);
               running = false;
               return;
             }
@@ -614,7 +908,7 @@ public class Container {
         }
         log.info("All agents have shutdown");
         agents.clear();
-        idle.clear();
+        nIdle.set(0);
         running = false;
         return;
       } catch (ConcurrentModificationException ex) {
@@ -638,10 +932,7 @@ public class Container {
    * @return true if all agents are idle, false otherwise.
    */
   public boolean isIdle() {
-    int nAgents = agents.size();
-    synchronized (idle) {
-      return nAgents == idle.size();
-    }
+    return nIdle.get() == agents.size();
   }
 
   /**
@@ -672,18 +963,123 @@ public class Container {
   //////////////// Package private methods
 
   /**
-   * Deep clones an object if autoclone is enabled.
+   * Records a message with the message tracer, if one is set.
+   *
+   * @param m message to record.
+   * @param size size of the message on the wire in bytes, or 0 for local messages.
+   */
+  protected void trace(Message m, int size) {
+    MessageTracer t = tracer;
+    if (t != null) t.record(platform.currentTimeMillis(), m, size);
+  }
+
+  /**
+   * Deep clones an object if autoclone is enabled. Immutable messages are
+   * never cloned.
    *
    * @param obj object to clone.
    * @return cloned object, if autoclone is enabled, original object otherwise.
    */
   <T extends Serializable> T autoclone(T obj) {
-    if (autoclone) return clone(obj);
+    if (autoclone && !(obj instanceof ImmutableMessage)) return clone(obj);
     return obj;
   }
 
+  /**
+   * Sends a batch of messages to local agents, without relaying. Each message
+   * is handled as in {@link #send(Message, boolean)} with relaying disabled,
+   * but messages are grouped by recipient and delivered to each recipient
+   * together.
+   *
+   * @param msgs messages to deliver.
+   * @return array with an entry for each message, true if delivered, false otherwise.
+   */
+  protected boolean[] sendLocal(List<Message> msgs) {
+    boolean[] ok = new boolean[msgs.size()];
+    Map<AgentID,Batch> batches = new LinkedHashMap<>();
+    long now = platform.currentTimeMillis();
+    for (int i = 0; i < ok.length; i++) {
+      Message m = msgs.get(i);
+      if (m.getSentAt() == null) m.setSentAt(now);
+      if (!listeners.isEmpty() && consumedByListener(m)) {
+        ok[i] = true;
+        continue;
+      }
+      AgentID aid = m.getRecipient();
+      if (aid == null) continue;
+      if (platform.defer(this, m)) {
+        ok[i] = aid.isTopic() || getAgent(aid) != null;
+        continue;
+      }
+      batches.computeIfAbsent(aid, k -> new Batch()).add(m, i);
+    }
+    for (Map.Entry<AgentID,Batch> e: batches.entrySet()) {
+      AgentID aid = e.getKey();
+      Batch b = e.getValue();
+      for (Message m: b.msgs)
+        trace(m, 0);
+      if (aid.isTopic()) {
+        Set<Agent> subscribers = topics.get(aid);
+        if (subscribers != null) {
+          for (Agent a: subscribers)
+            a.deliverAll(b.msgs);
+        }
+        for (int j: b.index)
+          ok[j] = true;
+      } else {
+        Agent a = getAgent(aid);
+        if (a == null) continue;
+        boolean[] r = a.deliverAll(b.msgs);
+        for (int j = 0; j < r.length; j++)
+          ok[b.index.get(j)] = r[j];
+      }
+    }
+    return ok;
+  }
+
+  /**
+   * Delivers a message to local agents, bypassing message listeners.
+   *
+   * @param m message to deliver.
+   * @return true if delivered, false otherwise.
+   */
+  boolean deliver(Message m) {
+    trace(m, 0);
+    AgentID aid = m.getRecipient();
+    if (aid.isTopic()) {
+      Set<Agent> subscribers = topics.get(aid);
+      if (subscribers != null) {
+        for (Agent a: subscribers)
+          a.deliver(m);
+      }
+    } else {
+      Agent a = getAgent(aid);
+      if (a == null) return false;
+      return a.deliver(m);
+    }
+    return true;
+  }
+
   //////////////// Private methods
 
+  /**
+   * Messages for a single recipient, and their positions in a batch.
+   */
+  private static class Batch {
+    final List<Message> msgs = new ArrayList<>();
+    final List<Integer> index = new ArrayList<>();
+    void add(Message m, int i) {
+      msgs.add(m);
+      index.add(i);
+    }
+  }
+
+  private boolean consumedByListener(Message m) {
+    for (MessageListener listener: listeners)
+      if (listener.onReceive(m)) return true;
+    return false;
+  }
+
   /**
    * Checks if an agent id already exists in the container.
    *
@@ -698,11 +1094,15 @@ public class Container {
   /**
    * Called by agent to report when its idle.
    *
-   * @param aid agent that is idle.
+   * @param agent agent that is idle.
    */
-  void reportIdle(AgentID aid) {
-    synchronized (idle) {
-      idle.add(aid);
+  void reportIdle(Agent agent) {
+    if (!agent.idleState.compareAndSet(Agent.BUSY, Agent.IDLE)) return;
+    nIdle.incrementAndGet();
+    if (initing) {
+      synchronized (initSync) {
+        initSync.notifyAll();
+      }
     }
     if (running && isIdle()) platform.idle();
   }
@@ -710,12 +1110,10 @@ public class Container {
   /**
    * Called by agent to report when its busy.
    *
-   * @param aid agent that is busy.
+   * @param agent agent that is busy.
    */
-  void reportBusy(AgentID aid) {
-    synchronized (idle) {
-      idle.remove(aid);
-    }
+  void reportBusy(Agent agent) {
+    if (agent.idleState.compareAndSet(Agent.IDLE, Agent.BUSY)) nIdle.decrementAndGet();
   }
 
 }
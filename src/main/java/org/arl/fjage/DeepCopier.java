@@ -0,0 +1,252 @@
+/******************************************************************************
+
+Copyright (c) 2013, Mandar Chitre
+
+This file is part of fjage which is released under Simplified BSD License.
+See file LICENSE.txt or go to http://www.opensource.org/licenses/BSD-3-Clause
+for full license details.
+
+******************************************************************************/
+
+package org.arl.fjage;
+
+import java.io.Externalizable;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.*;
+import org.apache.commons.lang3.SerializationUtils;
+
+/**
+ * Internal class implementing a deep copier with the same semantics as
+ * cloning by serialization: transient fields are not copied, and shared
+ * references and cycles within the object graph are preserved. A copy plan
+ * is generated once per class, using method handles for field access and the
+ * serialization constructor (as used by object streams) for instantiation. Immutable types (strings,
+ * boxed primitives, enums) are shared rather than copied, and common
+ * collections are rebuilt with copies of their elements. Objects of classes
+ * with custom serialization, and other JDK classes, are cloned using
+ * serialization.
+ */
+final class DeepCopier {
+
+  /////////// Private attributes
+
+  private static final int IMMUTABLE = 0;
+  private static final int PRIMITIVE_ARRAY = 1;
+  private static final int OBJECT_ARRAY = 2;
+  private static final int COLLECTION = 3;
+  private static final int MAP = 4;
+  private static final int FIELDS = 5;
+  private static final int SERIAL = 6;
+
+  private static final MethodType COPY_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+  private static final MethodType GET_TYPE = MethodType.methodType(Object.class, Object.class);
+  private static final MethodType NEW_TYPE = MethodType.methodType(Object.class);
+  private static final MethodHandle[] NONE = new MethodHandle[0];
+
+  private static final Set<Class<?>> immutables = new HashSet<>(Arrays.asList(
+    String.class, Boolean.class, Character.class, Byte.class, Short.class, Integer.class,
+    Long.class, Float.class, Double.class, BigInteger.class, BigDecimal.class, UUID.class,
+    Class.class
+  ));
+
+  // collections that can be rebuilt using a no-arg constructor
+  private static final Set<Class<?>> collections = new HashSet<>(Arrays.asList(
+    ArrayList.class, LinkedList.class, Vector.class, ArrayDeque.class, HashSet.class, LinkedHashSet.class,
+    HashMap.class, Hashtable.class, java.util.concurrent.ConcurrentHashMap.class,
+    java.util.concurrent.CopyOnWriteArrayList.class
+  ));
+
+  private static final class Plan {
+    int kind = SERIAL;
+    MethodHandle ctor = null;        // ()Object, for collections
+    Constructor<?> sctor = null;     // serialization constructor, for other objects
+    MethodHandle[] shallow = NONE;   // (dst,src)void, copies field as-is
+    MethodHandle[] getters = NONE;   // (src)Object, for fields that need a deep copy
+    MethodHandle[] setters = NONE;   // (dst,value)void
+  }
+
+  private static final ClassValue<Plan> plans = new ClassValue<Plan>() {
+    @Override
+    protected Plan computeValue(Class<?> type) {
+      return plan(type);
+    }
+  };
+
+  private static final MethodHandles.Lookup lookup = MethodHandles.lookup();
+  private static Object reflectionFactory = null;
+  private static Method newConstructorForSerialization = null;
+
+  static {
+    try {
+      Class<?> cls = Class.forName("sun.reflect.ReflectionFactory");
+      reflectionFactory = cls.getMethod("getReflectionFactory").invoke(null);
+      newConstructorForSerialization = cls.getMethod("newConstructorForSerialization", Class.class, Constructor.class);
+    } catch (Exception ex) {
+      // fallback to no-arg constructors
+    }
+  }
+
+  private DeepCopier() {
+    // static methods only
+  }
+
+  /////////// Interface methods
+
+  /**
+   * Deep copies an object.
+   *
+   * @param obj object to copy.
+   * @return copy of the object.
+   */
+  static Object copy(Object obj) {
+    if (obj == null) return null;
+    if (plans.get(obj.getClass()).kind == IMMUTABLE) return obj;
+    try {
+      return copy(obj, new IdentityHashMap<>());
+    } catch (RuntimeException | Error ex) {
+      throw ex;
+    } catch (Throwable ex) {
+      throw new FjageException("Copy failed: "+ex.toString());
+    }
+  }
+
+  /////////// Private methods
+
+  @SuppressWarnings("unchecked")
+  private static Object copy(Object obj, IdentityHashMap<Object,Object> copies) throws Throwable {
+    if (obj == null) return null;
+    Class<?> cls = obj.getClass();
+    Plan p = plans.get(cls);
+    if (p.kind == IMMUTABLE) return obj;
+    Object c = copies.get(obj);
+    if (c != null) return c;
+    switch (p.kind) {
+      case PRIMITIVE_ARRAY: {
+        int n = Array.getLength(obj);
+        c = Array.newInstance(cls.getComponentType(), n);
+        System.arraycopy(obj, 0, c, 0, n);
+        copies.put(obj, c);
+        return c;
+      }
+      case OBJECT_ARRAY: {
+        Object[] src = (Object[])obj;
+        Object[] dst = (Object[])Array.newInstance(cls.getComponentType(), src.length);
+        copies.put(obj, dst);
+        for (int i = 0; i < src.length; i++)
+          dst[i] = copy(src[i], copies);
+        return dst;
+      }
+      case COLLECTION: {
+        Collection<Object> dst = (Collection<Object>)(Object)p.ctor.invokeExact();
+        copies.put(obj, dst);
+        for (Object e: (Collection<Object>)obj)
+          dst.add(copy(e, copies));
+        return dst;
+      }
+      case MAP: {
+        Map<Object,Object> dst = (Map<Object,Object>)(Object)p.ctor.invokeExact();
+        copies.put(obj, dst);
+        for (Map.Entry<Object,Object> e: ((Map<Object,Object>)obj).entrySet())
+          dst.put(copy(e.getKey(), copies), copy(e.getValue(), copies));
+        return dst;
+      }
+      case FIELDS: {
+        if (obj instanceof Message) ((Message)obj).getMessageID();   // copy shares the message id
+        c = p.sctor.newInstance();
+        copies.put(obj, c);
+        for (MethodHandle mh: p.shallow)
+          mh.invokeExact(c, obj);
+        for (int i = 0; i < p.getters.length; i++) {
+          Object v = (Object)p.getters[i].invokeExact(obj);
+          p.setters[i].invokeExact(c, copy(v, copies));
+        }
+        if (obj instanceof Message) ((Message)c).priority = ((Message)obj).priority;
+        return c;
+      }
+      default:
+        c = SerializationUtils.clone((Serializable)obj);
+        copies.put(obj, c);
+        return c;
+    }
+  }
+
+  private static Plan plan(Class<?> type) {
+    Plan p = new Plan();
+    if (immutables.contains(type) || Enum.class.isAssignableFrom(type)) {
+      p.kind = IMMUTABLE;
+      return p;
+    }
+    if (type.isArray()) {
+      p.kind = type.getComponentType().isPrimitive() ? PRIMITIVE_ARRAY : OBJECT_ARRAY;
+      return p;
+    }
+    try {
+      if (collections.contains(type)) {
+        p.ctor = lookup.findConstructor(type, MethodType.methodType(void.class)).asType(NEW_TYPE);
+        p.kind = Map.class.isAssignableFrom(type) ? MAP : COLLECTION;
+        return p;
+      }
+      String name = type.getName();
+      if (name.startsWith("java.") || name.startsWith("javax.")) return p;
+      if (Externalizable.class.isAssignableFrom(type) || !Serializable.class.isAssignableFrom(type)) return p;
+      List<MethodHandle> shallow = new ArrayList<>();
+      List<MethodHandle> getters = new ArrayList<>();
+      List<MethodHandle> setters = new ArrayList<>();
+      Class<?> c = type;
+      for (; c != null && Serializable.class.isAssignableFrom(c); c = c.getSuperclass()) {
+        if (c != Message.class && customSerialization(c)) return p;
+        for (Field f: c.getDeclaredFields()) {
+          int mod = f.getModifiers();
+          if (Modifier.isStatic(mod) || Modifier.isTransient(mod)) continue;
+          f.setAccessible(true);
+          MethodHandle get = lookup.unreflectGetter(f);
+          MethodHandle set = lookup.unreflectSetter(f);
+          Class<?> ft = f.getType();
+          if (ft.isPrimitive() || (Modifier.isFinal(ft.getModifiers()) && immutables.contains(ft)) || ft.isEnum()) {
+            shallow.add(MethodHandles.filterArguments(set, 1, get).asType(COPY_TYPE));
+          } else {
+            getters.add(get.asType(GET_TYPE));
+            setters.add(set.asType(COPY_TYPE));
+          }
+        }
+      }
+      Constructor<?> ctor = c == null ? Object.class.getDeclaredConstructor() : c.getDeclaredConstructor();
+      if (newConstructorForSerialization != null)
+        ctor = (Constructor<?>)newConstructorForSerialization.invoke(reflectionFactory, type, ctor);
+      else ctor = type.getDeclaredConstructor();
+      ctor.setAccessible(true);
+      p.sctor = ctor;
+      p.shallow = shallow.toArray(NONE);
+      p.getters = getters.toArray(NONE);
+      p.setters = setters.toArray(NONE);
+      p.kind = FIELDS;
+    } catch (Exception ex) {
+      p.kind = SERIAL;
+    }
+    return p;
+  }
+
+  private static boolean customSerialization(Class<?> c) {
+    for (Method m: c.getDeclaredMethods()) {
+      String name = m.getName();
+      Class<?>[] args = m.getParameterTypes();
+      if (name.equals("writeObject") && args.length == 1 && args[0] == ObjectOutputStream.class) return true;
+      if (name.equals("readObject") && args.length == 1 && args[0] == ObjectInputStream.class) return true;
+      if (args.length == 0 && (name.equals("writeReplace") || name.equals("readResolve") || name.equals("readObjectNoData"))) return true;
+    }
+    return false;
+  }
+
+}
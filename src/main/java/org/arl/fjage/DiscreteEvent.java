@@ -17,43 +17,56 @@ import java.util.TimerTask;
  *
  * @author  Mandar Chitre
  */
-class DiscreteEvent implements Comparable<DiscreteEvent> {
+class DiscreteEvent implements Comparable<DiscreteEvent>, ScheduledTask {
 
   /////////// Attributes
 
-  static volatile long count = 0;
-
   long id;               // event count, for resolving ordering ties
   long tid;              // thread id of creator
   long created;          // time when the event was created
   long time;             // time of the event
   TimerTask task;        // task to be executed when time is reached
   boolean passive;       // passive tasks are ones which do not wake up any agent
+  boolean fired;         // true once the task has been executed
+  volatile boolean cancelled;
 
   /////////// Constructors for convenience
 
-  DiscreteEvent(long created, long time, TimerTask task) {
-    synchronized (DiscreteEvent.class) {
-      this.id = count++;
-    }
-    this.tid = Thread.currentThread().getId();
-    this.created = created;
-    this.time = time;
-    this.task = task;
-    passive = false;
+  DiscreteEvent(long id, long created, long time, TimerTask task) {
+    this(id, created, time, task, false);
   }
 
-  DiscreteEvent(long created, long time, TimerTask task, boolean passive) {
-    synchronized (DiscreteEvent.class) {
-      this.id = count++;
-    }
+  DiscreteEvent(long id, long created, long time, TimerTask task, boolean passive) {
+    this.id = id;
     this.tid = Thread.currentThread().getId();
     this.created = created;
     this.time = time;
     this.task = task;
     this.passive = passive;
   }
-  
+
+  //////////// Execution and cancellation
+
+  void fire() {
+    synchronized (this) {
+      if (cancelled) return;
+      fired = true;
+    }
+    task.run();
+  }
+
+  @Override
+  public synchronized boolean cancel() {
+    if (fired || cancelled) return false;
+    cancelled = true;
+    return true;
+  }
+
+  @Override
+  public boolean isCancelled() {
+    return cancelled;
+  }
+
   //////////// For display
   
   public String toString() {
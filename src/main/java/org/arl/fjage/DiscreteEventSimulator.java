@@ -10,9 +10,17 @@ for full license details.
 
 package org.arl.fjage;
 
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Queue;
 import java.util.TimerTask;
-import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -22,6 +30,20 @@ import java.util.logging.Logger;
  * simulate the behavior of the system quickly, assuming that the computations
  * and other operations take insignificant amount of time.
  * <p>
+ * Events are submitted to the simulator without locking, and are kept in an
+ * event heap owned by the simulator thread. All events due at the same
+ * simulation time are fired as a batch, before the simulator waits for the
+ * agents to go idle and advances time to the next event.
+ * <p>
+ * By default, each agent runs on its own thread. If parallelism is set using
+ * {@link #setParallelism(int)}, agents run on a shared pool of that many threads
+ * instead, and agents woken at the same simulation time run concurrently. In this
+ * mode, messages sent at a given simulation time are held back until all agents
+ * are idle, and then delivered in an order determined by the sender name and the
+ * order in which each sender sent them. This keeps simulations repeatable for a
+ * fixed {@link AgentLocalRandom#setRootSeed(long)}, irrespective of thread
+ * scheduling.
+ * <p>
  * Typical use of this platform is shown below:
  * <pre>
  * import org.arl.fjage.*;
@@ -39,10 +61,33 @@ public final class DiscreteEventSimulator extends Platform implements Runnable {
   /////////// Private attributes
 
   private volatile long time = 0;
-  private Queue<DiscreteEvent> events = new PriorityBlockingQueue<DiscreteEvent>();
+  private final Queue<DiscreteEvent> submitted = new ConcurrentLinkedQueue<>();
+  private final Queue<DiscreteEvent> events = new PriorityQueue<>();    // owned by simulator thread
+  private final AtomicLong eventCount = new AtomicLong();
   private Logger log = Logger.getLogger(getClass().getName());
   private Thread thread = null;
   private float speed = Float.NaN;
+  private volatile boolean quit = false;
+  private int parallelism = 0;
+  private ForkJoinPool pool = null;
+  private final Queue<DeferredMessage> deferred = new ConcurrentLinkedQueue<>();
+  private final Map<String,AtomicLong> sendCount = new ConcurrentHashMap<>();
+
+  private static final class DeferredMessage {
+    final Container container;
+    final Message msg;
+    final String sender;
+    final long seq;
+    DeferredMessage(Container container, Message msg, String sender, long seq) {
+      this.container = container;
+      this.msg = msg;
+      this.sender = sender;
+      this.seq = seq;
+    }
+  }
+
+  private static final Comparator<DeferredMessage> DELIVERY_ORDER =
+    Comparator.<DeferredMessage,String>comparing(d -> d.sender).thenComparingLong(d -> d.seq);
 
   /////////// Implementation methods
 
@@ -50,7 +95,6 @@ public final class DiscreteEventSimulator extends Platform implements Runnable {
    * Creates a DiscreteEventSimulator that runs as fast as possible.
    */
   public DiscreteEventSimulator() {
-    LogHandlerProxy.install(this, log);
   }
 
   /**
@@ -60,7 +104,6 @@ public final class DiscreteEventSimulator extends Platform implements Runnable {
    * @param speed speed up with respect to real time.
    */
   public DiscreteEventSimulator(float speed) {
-    LogHandlerProxy.install(this, log);
     this.speed = speed;
   }
 
@@ -82,7 +125,7 @@ public final class DiscreteEventSimulator extends Platform implements Runnable {
     long dt = millis;
     while (dt > 0) {
       synchronized (sync) {
-        addEvent(new DiscreteEvent(time, t, new TimerTask() {
+        addEvent(new DiscreteEvent(eventCount.getAndIncrement(), time, t, new TimerTask() {
           @Override
           public void run() {
             synchronized (sync) {
@@ -101,9 +144,14 @@ public final class DiscreteEventSimulator extends Platform implements Runnable {
   }
 
   @Override
-  public void schedule(TimerTask task, long millis) {
-    if (millis <= 0) task.run();
-    else addEvent(new DiscreteEvent(time, time+millis, task));
+  public ScheduledTask schedule(TimerTask task, long millis) {
+    DiscreteEvent e = new DiscreteEvent(eventCount.getAndIncrement(), time, time+Math.max(0, millis), task);
+    if (millis <= 0) {
+      e.fired = true;
+      task.run();
+    }
+    else addEvent(e);
+    return e;
   }
 
   @Override
@@ -114,9 +162,43 @@ public final class DiscreteEventSimulator extends Platform implements Runnable {
     }
   }
 
+  /**
+   * Sets the number of threads that agents run on. When set to a positive number,
+   * agents in containers without an executor of their own run on a shared pool
+   * with the given number of threads, and agents woken at the same simulation time
+   * run concurrently. Messages are then delivered in a deterministic order once all
+   * agents are idle. This must be set before the platform is started.
+   *
+   * @param n number of threads, or 0 to run each agent on its own thread (default).
+   */
+  public void setParallelism(int n) {
+    if (running) throw new FjageException("Parallelism cannot be changed after platform is started");
+    if (n < 0) throw new IllegalArgumentException("Parallelism must not be negative");
+    parallelism = n;
+  }
+
+  /**
+   * Gets the number of threads that agents run on.
+   *
+   * @return number of threads, or 0 if each agent runs on its own thread.
+   * @see #setParallelism(int)
+   */
+  public int getParallelism() {
+    return parallelism;
+  }
+
   @Override
   public void start() {
+    if (getLogTimestamps()) LogHandlerProxy.install(this, log);
+    pool = null;
+    if (parallelism > 0) {
+      // pool threads are daemon threads, and exit once the pool is idle
+      pool = new ForkJoinPool(parallelism);
+      for (Container c: getContainers())
+        if (c.getExecutor() == null) c.setExecutor(pool);
+    }
     super.start();
+    quit = false;
     thread = new Thread(this);
     thread.setName(getClass().getSimpleName());
     thread.setDaemon(true);
@@ -126,14 +208,23 @@ public final class DiscreteEventSimulator extends Platform implements Runnable {
   @Override
   public void shutdown() {
     super.shutdown();
-    synchronized (events) {
-      events.clear();
-    }
+    quit = true;
+    submitted.clear();
+    deferred.clear();
     synchronized (this) {
       notify();
     }
   }
 
+  /**
+   * Gets the number of events scheduled on the simulator so far.
+   *
+   * @return number of events.
+   */
+  public long getEventCount() {
+    return eventCount.get();
+  }
+
   /**
    * Thread implementation.
    *
@@ -141,28 +232,48 @@ public final class DiscreteEventSimulator extends Platform implements Runnable {
    */
   @Override
   public void run() {
+    List<DiscreteEvent> batch = new ArrayList<>();
     try {
-      DiscreteEvent e = events.peek();
-      while (running) {
+      while (running && !quit) {
+        // fire all events due at the current time as a batch
+        DiscreteEvent e = nextEvent();
         while (e != null && e.time <= time) {
-          log.fine("Fire "+e);
-          synchronized (events) {
-            if (events.size() > 0) events.poll().task.run();
+          batch.add(events.poll());
+          e = nextEvent();
+        }
+        if (!batch.isEmpty()) {
+          boolean passive = false;
+          for (DiscreteEvent b: batch) {
+            if (quit) break;
+            if (log.isLoggable(Level.FINE)) log.fine("Fire "+b);
+            passive |= b.passive;
+            b.fire();
           }
-          e = events.peek();
+          batch.clear();
+          if (passive) Thread.yield();      // let threads waiting in delay() run
+          continue;
         }
-        Thread.yield();
-        synchronized (this) {
-          while (running && !isIdle()) {
-            try {
-              log.fine("Waiting for agents");
-              wait();
-            } catch (InterruptedException ex) {
-              Thread.currentThread().interrupt();
+        // wait for agents to go idle
+        if (!isIdle()) {
+          synchronized (this) {
+            while (running && !quit && !isIdle()) {
+              try {
+                log.fine("Waiting for agents");
+                wait();
+              } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+              }
             }
           }
+          continue;
         }
-        e = events.peek();
+        // deliver messages held back during this time step
+        if (!deferred.isEmpty()) {
+          deliverDeferred();
+          continue;
+        }
+        // advance time to the next event
+        e = nextEvent();
         if (e != null) {
           long dt = e.time - time;
           time = e.time;
@@ -183,19 +294,50 @@ public final class DiscreteEventSimulator extends Platform implements Runnable {
     } catch (Exception ex) {
       log.log(Level.SEVERE, "Exception: ", ex);
     }
+    events.clear();
     log.info("Simulator shutdown");
   }
 
   /////////// Private methods
 
-  private void addEvent(DiscreteEvent event) {
-    log.fine("Adding "+event);
-    events.add(event);
-    if (thread != null && thread.getState() == Thread.State.WAITING) {
-      synchronized (this) {
-        notify();
-      }
+  // moves submitted events to the event heap, and returns the earliest
+  // pending event, discarding cancelled ones
+  private DiscreteEvent nextEvent() {
+    DiscreteEvent e;
+    while ((e = submitted.poll()) != null)
+      events.add(e);
+    e = events.peek();
+    while (e != null && e.isCancelled()) {
+      events.poll();
+      e = events.peek();
     }
+    return e;
+  }
+
+  @Override
+  boolean defer(Container container, Message m) {
+    if (pool == null) return false;
+    String sender = m.getSender() == null ? "" : m.getSender().getName();
+    long seq = sendCount.computeIfAbsent(sender, k -> new AtomicLong()).getAndIncrement();
+    deferred.add(new DeferredMessage(container, m, sender, seq));
+    return true;
+  }
+
+  // delivers deferred messages in a deterministic order, called when all agents are idle
+  private void deliverDeferred() {
+    List<DeferredMessage> msgs = new ArrayList<>();
+    DeferredMessage d;
+    while ((d = deferred.poll()) != null)
+      msgs.add(d);
+    sendCount.clear();
+    msgs.sort(DELIVERY_ORDER);
+    for (DeferredMessage dm: msgs)
+      dm.container.deliver(dm.msg);
+  }
+
+  private void addEvent(DiscreteEvent event) {
+    if (log.isLoggable(Level.FINE)) log.fine("Adding "+event);
+    submitted.add(event);
   }
 
 }
@@ -0,0 +1,25 @@
+/******************************************************************************
+
+Copyright (c) 2013, Mandar Chitre
+
+This file is part of fjage which is released under Simplified BSD License.
+See file LICENSE.txt or go to http://www.opensource.org/licenses/BSD-3-Clause
+for full license details.
+
+******************************************************************************/
+
+package org.arl.fjage;
+
+/**
+ * Marker interface for messages that are not modified after they are sent.
+ * When autocloning is enabled on a container, messages implementing this
+ * interface are not cloned, but delivered as-is to all recipients. A message
+ * class should only implement this interface if neither the sender nor any
+ * recipient modifies a message once it is sent, e.g. if all its attributes
+ * are final and immutable.
+ *
+ * @author  Mandar Chitre
+ */
+public interface ImmutableMessage {
+  // marker interface
+}
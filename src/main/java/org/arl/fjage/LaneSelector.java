@@ -0,0 +1,64 @@
+/******************************************************************************
+
+Copyright (c) 2013, Mandar Chitre
+
+This file is part of fjage which is released under Simplified BSD License.
+See file LICENSE.txt or go to http://www.opensource.org/licenses/BSD-3-Clause
+for full license details.
+
+******************************************************************************/
+
+package org.arl.fjage;
+
+import java.util.*;
+
+/**
+ * An interface for selecting the priority lane of an incoming message in an
+ * agent's message queue. Lane 0 has the highest priority. Messages with an
+ * explicit priority (see {@link Message#setPriority(Integer)}) are placed in
+ * the lane given by their priority, without consulting the lane selector.
+ *
+ * @see Agent#setQueueLanes(int, LaneSelector)
+ * @author  Mandar Chitre
+ */
+public interface LaneSelector {
+
+  /**
+   * Selects the lane for a message. Lanes outside the range of available
+   * lanes are clamped to the nearest available lane.
+   *
+   * @param m message.
+   * @return lane number, with 0 being the highest priority.
+   */
+  public int select(Message m);
+
+  /**
+   * Creates a lane selector that places messages with the given performatives
+   * in lane 0, and all other messages in lane 1.
+   *
+   * @param perfs high priority performatives.
+   * @return lane selector.
+   */
+  public static LaneSelector byPerformative(Performative... perfs) {
+    final Set<Performative> high = EnumSet.noneOf(Performative.class);
+    high.addAll(Arrays.asList(perfs));
+    return m -> high.contains(m.getPerformative()) ? 0 : 1;
+  }
+
+  /**
+   * Creates a lane selector that places messages of the given classes (or their
+   * subclasses) in lane 0, and all other messages in lane 1.
+   *
+   * @param classes high priority message classes.
+   * @return lane selector.
+   */
+  public static LaneSelector byClass(Class<?>... classes) {
+    final Class<?>[] high = classes.clone();
+    return m -> {
+      for (Class<?> cls: high)
+        if (cls.isInstance(m)) return 0;
+      return 1;
+    };
+  }
+
+}
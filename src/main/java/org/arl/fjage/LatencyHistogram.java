@@ -0,0 +1,138 @@
+/******************************************************************************
+
+Copyright (c) 2013, Mandar Chitre
+
+This file is part of fjage which is released under Simplified BSD License.
+See file LICENSE.txt or go to http://www.opensource.org/licenses/BSD-3-Clause
+for full license details.
+
+******************************************************************************/
+
+package org.arl.fjage;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Internal class implementing a log-linear latency histogram, in the style of
+ * HdrHistogram. Each power of 2 is split into 8 sub-buckets, giving a relative
+ * precision of 12.5% for values from 1 ns to about 4.9 hours. Recording a
+ * value takes constant time and does not allocate, except that the bucket
+ * array is allocated when the first value is recorded.
+ */
+final class LatencyHistogram {
+
+  /////////// Private attributes
+
+  private static final int SUB_BITS = 3;
+  private static final int SUB = 1 << SUB_BITS;
+  private static final int MAX_EXP = 44;
+  private static final int BUCKETS = (MAX_EXP-SUB_BITS+2) * SUB;
+
+  private volatile AtomicLongArray counts = null;
+  private volatile long max = 0;
+
+  /////////// Interface methods
+
+  /**
+   * Records a value.
+   *
+   * @param nanos value in nanoseconds.
+   */
+  void record(long nanos) {
+    AtomicLongArray c = counts;
+    if (c == null) {
+      synchronized (this) {
+        c = counts;
+        if (c == null) counts = c = new AtomicLongArray(BUCKETS);
+      }
+    }
+    c.incrementAndGet(index(nanos));
+    if (nanos > max) max = nanos;   // racy, but only ever increases in practice
+  }
+
+  /**
+   * Gets the number of recorded values.
+   *
+   * @return count.
+   */
+  long count() {
+    AtomicLongArray c = counts;
+    if (c == null) return 0;
+    long n = 0;
+    for (int i = 0; i < BUCKETS; i++)
+      n += c.get(i);
+    return n;
+  }
+
+  /**
+   * Gets the largest recorded value.
+   *
+   * @return value in nanoseconds.
+   */
+  long max() {
+    return max;
+  }
+
+  /**
+   * Gets the approximate mean of recorded values.
+   *
+   * @return value in nanoseconds, or 0 if no values were recorded.
+   */
+  double mean() {
+    AtomicLongArray c = counts;
+    if (c == null) return 0;
+    long n = 0;
+    double sum = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      long k = c.get(i);
+      if (k == 0) continue;
+      n += k;
+      sum += k * mid(i);
+    }
+    return n == 0 ? 0 : sum/n;
+  }
+
+  /**
+   * Gets an approximate percentile of recorded values.
+   *
+   * @param p percentile (0 to 100).
+   * @return value in nanoseconds, or 0 if no values were recorded.
+   */
+  double percentile(double p) {
+    AtomicLongArray c = counts;
+    if (c == null) return 0;
+    long[] snap = new long[BUCKETS];
+    long n = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      snap[i] = c.get(i);
+      n += snap[i];
+    }
+    if (n == 0) return 0;
+    long rank = (long)Math.ceil(p/100.0 * n);
+    if (rank < 1) rank = 1;
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += snap[i];
+      if (seen >= rank) return Math.min(mid(i), max);
+    }
+    return max;
+  }
+
+  /////////// Private methods
+
+  private static int index(long v) {
+    if (v < SUB) return v < 0 ? 0 : (int)v;
+    int e = 63 - Long.numberOfLeadingZeros(v);
+    if (e > MAX_EXP) return BUCKETS-1;
+    return (e-SUB_BITS+1)*SUB + (int)((v >>> (e-SUB_BITS)) & (SUB-1));
+  }
+
+  private static double mid(int i) {
+    if (i < SUB) return i;
+    int e = i/SUB + SUB_BITS - 1;
+    long width = 1L << (e-SUB_BITS);
+    long lower = (SUB + i%SUB) * width;
+    return lower + width/2.0;
+  }
+
+}
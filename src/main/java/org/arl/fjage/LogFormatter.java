@@ -23,6 +23,11 @@ import java.util.logging.Logger;
  */
 public class LogFormatter extends Formatter {
 
+  private static final int MAX_RETAINED = 16384;
+
+  // reusable buffer per formatting thread (usually just the log writer thread)
+  private static final ThreadLocal<StringBuilder> buffer = ThreadLocal.withInitial(() -> new StringBuilder(256));
+
   // list of packages to ignore in stack trace display
   private static String[] ignorePkgList = {
     "org.codehaus.groovy.",
@@ -38,7 +43,8 @@ public class LogFormatter extends Formatter {
    */
   @Override
   public String format(LogRecord record) {
-    StringBuffer s = new StringBuffer();
+    StringBuilder s = buffer.get();
+    s.setLength(0);
     s.append(record.getMillis());
     s.append('|');
     s.append(record.getLevel());
@@ -49,14 +55,16 @@ public class LogFormatter extends Formatter {
     s.append(':');
     s.append(record.getSourceMethodName());
     s.append('|');
-    s.append(indent(record.getMessage()));
+    indent(record.getMessage(), s);
     s.append('\n');
     Throwable t = record.getThrown();
     if (t != null) printStackTrace(t, s);
-    return s.toString();
+    String out = s.toString();
+    if (s.capacity() > MAX_RETAINED) buffer.remove();   // don't hold on to huge buffers
+    return out;
   }
 
-  private void printStackTrace(Throwable t, StringBuffer s) {
+  private void printStackTrace(Throwable t, StringBuilder s) {
     s.append('\n');
     String msg = t.toString();
     if (msg == null) msg = t.getClass().getName();
@@ -95,13 +103,24 @@ public class LogFormatter extends Formatter {
   /**
    * Indent multiline logs. The first line in the string is not indented.
    *
-   * @param s message to indent.
-   * @return indented message.
+   * @param msg message to indent.
+   * @param s buffer to append indented message to.
    */
-  private static String indent(String s) {
-    if (s == null || s.indexOf('\n') < 0) return s;
-    return s.replaceAll("\n", "\n\t");
+  private static void indent(String msg, StringBuilder s) {
+    if (msg == null) {
+      s.append(msg);
+      return;
+    }
+    int start = 0;
+    int n = msg.length();
+    for (int i = 0; i < n; i++) {
+      if (msg.charAt(i) == '\n') {
+        s.append(msg, start, i+1);
+        s.append('\t');
+        start = i+1;
+      }
+    }
+    s.append(msg, start, n);
   }
 
 }
-
@@ -10,7 +10,12 @@ for full license details.
 
 package org.arl.fjage;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OptionalDataException;
 import java.io.Serializable;
+import java.util.function.Supplier;
 
 /**
  * Base class for messages transmitted by one agent to another. This class provides
@@ -24,15 +29,17 @@ public class Message implements Serializable {
 
   private static final long serialVersionUID = 1L;
   private transient String _jsoncache = null;
+  private static volatile Supplier<String> idGenerator = () -> UUID7.generateFast().toString();
 
   //////////// Private attributes
 
-  protected String msgID = UUID7.generate().toString();
+  protected volatile String msgID = null;    // generated on first use, see getMessageID()
   protected Performative perf;
   protected AgentID recipient;
   protected AgentID sender = null;
   protected String inReplyTo = null;
   protected Long sentAt = null;
+  protected transient Integer priority = null;   // serialized explicitly, see writeObject()
 
   //////////// Interface methods
 
@@ -83,7 +90,7 @@ public class Message implements Serializable {
   public Message(Message inReplyTo) {
     perf = null;
     this.recipient = inReplyTo.sender;
-    this.inReplyTo = inReplyTo.msgID;
+    this.inReplyTo = inReplyTo.getMessageID();
   }
 
   /**
@@ -95,7 +102,7 @@ public class Message implements Serializable {
   public Message(Message inReplyTo, Performative perf) {
     this.perf = perf;
     this.recipient = inReplyTo.sender;
-    this.inReplyTo = inReplyTo.msgID;
+    this.inReplyTo = inReplyTo.getMessageID();
   }
 
   /**
@@ -166,12 +173,34 @@ public class Message implements Serializable {
   }
 
   /**
-   * Gets the unique identifier for this message.
+   * Gets the unique identifier for this message. The identifier is generated
+   * when this method is first called, or when the message is serialized,
+   * unless it was explicitly set earlier.
    *
    * @return message identifier.
    */
   public String getMessageID() {
-    return msgID;
+    String id = msgID;
+    if (id == null) {
+      synchronized (this) {
+        id = msgID;
+        if (id == null) msgID = id = idGenerator.get();
+      }
+    }
+    return id;
+  }
+
+  /**
+   * Sets the generator used for message identifiers. The default generator
+   * produces UUIDv7 strings using {@link UUID7#generateFast()}. The generator
+   * may be called concurrently from many threads, and must produce unique
+   * identifiers.
+   *
+   * @param gen message identifier generator, or null to use the default generator.
+   */
+  public static void setMessageIDGenerator(Supplier<String> gen) {
+    if (gen == null) gen = () -> UUID7.generateFast().toString();
+    idGenerator = gen;
   }
 
   /**
@@ -211,6 +240,29 @@ public class Message implements Serializable {
     return sentAt;
   }
 
+  /**
+   * Sets the priority of this message in the recipient's message queue. If the
+   * recipient's queue has multiple priority lanes, the message is placed in the
+   * lane given by its priority, with 0 being the highest priority. If the
+   * priority is not set, the recipient's lane selector chooses the lane.
+   *
+   * @param priority priority lane, or null to let the recipient choose.
+   * @see Agent#setQueueLanes(int, LaneSelector)
+   */
+  public void setPriority(Integer priority) {
+    this.priority = priority;
+    _jsoncache = null;
+  }
+
+  /**
+   * Gets the priority of this message in the recipient's message queue.
+   *
+   * @return priority lane, or null if not set.
+   */
+  public Integer getPriority() {
+    return priority;
+  }
+
   /////////////// Internal methods for JSON Serialization
 
 
@@ -234,6 +286,21 @@ public class Message implements Serializable {
 
   /////////////// Standard Java methods to customize
 
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    getMessageID();
+    out.defaultWriteObject();
+    out.writeObject(priority);
+  }
+
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    try {
+      priority = (Integer)in.readObject();
+    } catch (OptionalDataException ex) {
+      priority = null;    // serialized without a priority
+    }
+  }
+
   /**
    * Gets a string representation of the message.
    *
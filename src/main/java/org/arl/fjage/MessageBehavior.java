@@ -41,7 +41,7 @@ public class MessageBehavior extends Behavior {
    * @param cls message class of interest.
    */
   public MessageBehavior(final Class<?> cls) {
-    filter = m -> cls.isInstance(m);
+    filter = new ClassMessageFilter(cls);
   }
 
   /**
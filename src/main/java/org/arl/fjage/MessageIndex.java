@@ -0,0 +1,280 @@
+/******************************************************************************
+
+Copyright (c) 2013, Mandar Chitre
+
+This file is part of fjage which is released under Simplified BSD License.
+See file LICENSE.txt or go to http://www.opensource.org/licenses/BSD-3-Clause
+for full license details.
+
+******************************************************************************/
+
+package org.arl.fjage;
+
+import java.util.*;
+
+/**
+ * Internal class representing an ordered list of messages, with secondary
+ * indexes by inReplyTo and by message class. Messages matching a
+ * {@link ReplyMessageFilter} are found in constant time, and messages
+ * matching a {@link ClassMessageFilter} are found by looking at the oldest
+ * message of each indexed class. Other filters fall back to a linear scan.
+ * <p>
+ * Messages may be split into priority lanes, each with its own list. Higher
+ * priority lanes (lower lane numbers) are drained first. To prevent
+ * starvation, after a number of consecutive messages are taken from a higher
+ * lane while lower lanes have candidates, the oldest candidate in the lower
+ * lanes is taken. When trimmed, the oldest messages in the lowest priority
+ * lane are dropped first.
+ * <p>
+ * This class is not thread-safe.
+ */
+final class MessageIndex {
+
+  /////////// Private attributes
+
+  private static final int MIN_STALE = 64;
+
+  static final int DEFAULT_BURST = 16;
+
+  private static final class Node {
+    final Message msg;
+    final long seq;
+    final int lane;
+    Node prev, next;
+    boolean removed = false;
+    Node(Message msg, long seq, int lane) {
+      this.msg = msg;
+      this.seq = seq;
+      this.lane = lane;
+    }
+  }
+
+  private Node[] heads;                                   // sentinels of circular lists, per lane
+  private int[] counts;                                   // messages per lane
+  private Map<Class<?>,ArrayDeque<Node>>[] byClass;       // class index, per lane
+  private Node[] cand;                                    // scratch space for candidates, per lane
+  private final Map<String,ArrayDeque<Node>> byReply = new HashMap<>();
+  private LaneSelector selector = null;
+  private int burst = DEFAULT_BURST;
+  private int streak = 0;                                 // consecutive picks that bypassed lower lanes
+  private long seq = 0;
+  private int size = 0;
+  private int stale = 0;                                  // removed nodes still in class index
+
+  /////////// Interface methods
+
+  MessageIndex() {
+    init(1);
+  }
+
+  void setLanes(int lanes, LaneSelector selector, int burst) {
+    if (lanes < 1) throw new IllegalArgumentException("At least one lane is required");
+    List<Node> all = new ArrayList<>(size);
+    for (Node h: heads)
+      for (Node n = h.next; n != h; n = n.next)
+        all.add(n);
+    all.sort((a, b) -> Long.compare(a.seq, b.seq));
+    this.selector = selector;
+    this.burst = burst;
+    init(lanes);
+    byReply.clear();
+    size = 0;
+    stale = 0;
+    streak = 0;
+    for (Node n: all)
+      add(n.msg);
+  }
+
+  int getLanes() {
+    return heads.length;
+  }
+
+  void add(Message m) {
+    int lane = lane(m);
+    Node n = new Node(m, seq++, lane);
+    Node h = heads[lane];
+    n.prev = h.prev;
+    n.next = h;
+    h.prev.next = n;
+    h.prev = n;
+    counts[lane]++;
+    size++;
+    String irt = m.getInReplyTo();
+    if (irt != null) byReply.computeIfAbsent(irt, k -> new ArrayDeque<>(2)).add(n);
+    byClass[lane].computeIfAbsent(m.getClass(), k -> new ArrayDeque<>()).add(n);
+  }
+
+  Message poll() {
+    if (size == 0) return null;
+    if (heads.length == 1) return remove(heads[0].next);
+    for (int i = 0; i < heads.length; i++)
+      cand[i] = counts[i] > 0 ? heads[i].next : null;
+    return remove(pick());
+  }
+
+  Message poll(MessageFilter filter) {
+    if (filter == null) return poll();
+    if (filter instanceof ReplyMessageFilter) return pollReply(((ReplyMessageFilter)filter).getMessageID());
+    if (filter instanceof ClassMessageFilter) return pollClass(((ClassMessageFilter)filter).getMessageClass());
+    boolean found = false;
+    for (int i = 0; i < heads.length; i++) {
+      cand[i] = null;
+      Node h = heads[i];
+      for (Node n = h.next; n != h; n = n.next) {
+        if (filter.matches(n.msg)) {
+          if (heads.length == 1) return remove(n);
+          cand[i] = n;
+          found = true;
+          break;
+        }
+      }
+    }
+    if (!found) return null;
+    return remove(pick());
+  }
+
+  int trim(int max) {
+    int n = 0;
+    int lane = heads.length-1;
+    while (max > 0 && size > max) {
+      while (counts[lane] == 0) lane--;
+      remove(heads[lane].next);
+      n++;
+    }
+    return n;
+  }
+
+  void clear() {
+    for (int i = 0; i < heads.length; i++) {
+      heads[i].prev = heads[i];
+      heads[i].next = heads[i];
+      counts[i] = 0;
+      byClass[i].clear();
+    }
+    byReply.clear();
+    size = 0;
+    stale = 0;
+    streak = 0;
+  }
+
+  int size() {
+    return size;
+  }
+
+  /////////// Private methods
+
+  @SuppressWarnings({ "unchecked", "rawtypes" })
+  private void init(int lanes) {
+    heads = new Node[lanes];
+    counts = new int[lanes];
+    byClass = new Map[lanes];
+    cand = new Node[lanes];
+    for (int i = 0; i < lanes; i++) {
+      Node h = new Node(null, -1, i);
+      h.prev = h;
+      h.next = h;
+      heads[i] = h;
+      byClass[i] = new HashMap<>();
+    }
+  }
+
+  private int lane(Message m) {
+    int n = heads.length;
+    if (n == 1) return 0;
+    Integer p = m.getPriority();
+    int lane = p != null ? p : selector != null ? selector.select(m) : n-1;
+    if (lane < 0) return 0;
+    if (lane >= n) return n-1;
+    return lane;
+  }
+
+  // picks a candidate from cand[], preferring higher lanes, with starvation protection
+  private Node pick() {
+    Node top = null;
+    Node oldest = null;
+    for (Node n: cand) {
+      if (n == null) continue;
+      if (top == null) top = n;
+      else if (oldest == null || n.seq < oldest.seq) oldest = n;
+    }
+    if (oldest == null) {
+      streak = 0;
+      return top;
+    }
+    if (burst > 0 && streak >= burst) {
+      streak = 0;
+      return oldest;
+    }
+    streak++;
+    return top;
+  }
+
+  private Message pollReply(String mid) {
+    ArrayDeque<Node> q = byReply.get(mid);
+    if (q == null) return null;
+    return remove(q.peekFirst());
+  }
+
+  private Message pollClass(Class<?> cls) {
+    boolean found = false;
+    for (int i = 0; i < heads.length; i++) {
+      Node best = null;
+      Iterator<Map.Entry<Class<?>,ArrayDeque<Node>>> it = byClass[i].entrySet().iterator();
+      while (it.hasNext()) {
+        Map.Entry<Class<?>,ArrayDeque<Node>> e = it.next();
+        if (!cls.isAssignableFrom(e.getKey())) continue;
+        ArrayDeque<Node> q = e.getValue();
+        while (!q.isEmpty() && q.peekFirst().removed) {
+          q.pollFirst();
+          stale--;
+        }
+        if (q.isEmpty()) it.remove();
+        else if (best == null || q.peekFirst().seq < best.seq) best = q.peekFirst();
+      }
+      if (best != null && heads.length == 1) return remove(best);
+      cand[i] = best;
+      if (best != null) found = true;
+    }
+    if (!found) return null;
+    return remove(pick());
+  }
+
+  private Message remove(Node n) {
+    n.prev.next = n.next;
+    n.next.prev = n.prev;
+    n.prev = null;
+    n.next = null;
+    n.removed = true;
+    counts[n.lane]--;
+    size--;
+    String irt = n.msg.getInReplyTo();
+    if (irt != null) {
+      ArrayDeque<Node> q = byReply.get(irt);
+      if (q != null) {
+        q.removeFirstOccurrence(n);
+        if (q.isEmpty()) byReply.remove(irt);
+      }
+    }
+    // class index entries are removed eagerly from the head (the common FIFO case),
+    // and lazily otherwise, with the index rebuilt once it is mostly stale
+    Class<?> cls = n.msg.getClass();
+    Map<Class<?>,ArrayDeque<Node>> index = byClass[n.lane];
+    ArrayDeque<Node> q = index.get(cls);
+    if (q != null && q.peekFirst() == n) {
+      q.pollFirst();
+      if (q.isEmpty()) index.remove(cls);
+    } else if (++stale > size + MIN_STALE) reindex();
+    return n.msg;
+  }
+
+  private void reindex() {
+    for (int i = 0; i < heads.length; i++) {
+      byClass[i].clear();
+      Node h = heads[i];
+      for (Node n = h.next; n != h; n = n.next)
+        byClass[i].computeIfAbsent(n.msg.getClass(), k -> new ArrayDeque<>()).add(n);
+    }
+    stale = 0;
+  }
+
+}
@@ -10,19 +10,27 @@ for full license details.
 
 package org.arl.fjage;
 
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
 
 /**
- * Internal class representing a message queue.
+ * Internal class representing a message queue. Committed messages are
+ * indexed, so that replies to a message ({@link ReplyMessageFilter}) and
+ * messages of a given class ({@link ClassMessageFilter}) are found without
+ * scanning the whole queue.
+ * <p>
+ * When the queue is full, incoming messages are handled according to the
+ * queue's {@link OverflowPolicy}. With the default {@link OverflowPolicy#DROP_OLDEST}
+ * policy, the maximum length is enforced separately on uncommitted and
+ * committed messages. With other policies, it is enforced on their total.
  *
  * @author  Mandar Chitre
  */
-public class MessageQueue {
+public class MessageQueue extends AbstractMessageQueue {
 
   /////////// Private attributes
 
-  private LinkedList<Message> queue = new LinkedList<Message>();
+  private MessageIndex queue = new MessageIndex();
   private LinkedList<Message> quarantine = new LinkedList<Message>();
   private int maxQueueLen;
 
@@ -36,62 +44,119 @@ public class MessageQueue {
     maxQueueLen = maxlen;
   }
 
+  @Override
   public synchronized void setSize(int size) {
     maxQueueLen = size;
-    while (maxQueueLen > 0 && queue.size() > maxQueueLen)
-      queue.remove();
+    dropped(queue.trim(maxQueueLen));
+    notifyAll();
   }
 
-  public synchronized void add(Message m) {
+  @Override
+  public synchronized void setLanes(int lanes, LaneSelector selector, int burst) {
+    queue.setLanes(lanes, selector, burst);
+  }
+
+  @Override
+  public synchronized int getLanes() {
+    return queue.getLanes();
+  }
+
+  @Override
+  public synchronized boolean add(Message m, boolean wait) {
+    OverflowPolicy policy = getOverflowPolicy();
+    if (maxQueueLen > 0 && policy != OverflowPolicy.DROP_OLDEST) {
+      if (policy == OverflowPolicy.BLOCK && wait && isFull()) {
+        long t = getBlockTimeout();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(t);
+        try {
+          while (isFull() && getOverflowPolicy() == OverflowPolicy.BLOCK && (t > 0 || t == Agent.BLOCKING)) {
+            if (t == Agent.BLOCKING) wait();
+            else {
+              wait(t);
+              t = Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
+            }
+          }
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      policy = getOverflowPolicy();
+      if (maxQueueLen > 0 && policy != OverflowPolicy.DROP_OLDEST && isFull()) {
+        if (policy == OverflowPolicy.DROP_NEWEST) {
+          dropped(1);
+          return true;
+        }
+        rejected();
+        return false;
+      }
+    }
     quarantine.offer(m);
-    while (maxQueueLen > 0 && quarantine.size() > maxQueueLen)
+    while (maxQueueLen > 0 && quarantine.size() > maxQueueLen) {
       quarantine.remove();
+      dropped(1);
+    }
+    return true;
   }
 
+  // takes the queue lock once for the whole batch
+  @Override
+  public synchronized boolean[] addAll(List<Message> msgs, boolean wait) {
+    boolean[] ok = new boolean[msgs.size()];
+    for (int i = 0; i < ok.length; i++)
+      ok[i] = add(msgs.get(i), wait);
+    return ok;
+  }
+
+  @Override
   public synchronized void commit(Iterable<MessageFilter> exclusions) {
+    Exclusions ex = new Exclusions(exclusions);
+    if (ex.all) return;
     Iterator<Message> it = quarantine.iterator();
     while (it.hasNext()) {
       Message m = it.next();
-      boolean exclude = false;
-      for (MessageFilter mf: exclusions) {
-        if (mf == null || mf.matches(m)) {
-          exclude = true;
-          break;
-        }
-      }
-      if (!exclude) {
+      if (!ex.matches(m)) {
         it.remove();
-        queue.offer(m);
+        queue.add(m);
       }
     }
-    while (maxQueueLen > 0 && queue.size() > maxQueueLen)
-      queue.remove();
+    dropped(queue.trim(maxQueueLen));
   }
 
+  @Override
   public synchronized Message get() {
-    return queue.poll();
+    Message m = queue.poll();
+    if (m != null && getOverflowPolicy() == OverflowPolicy.BLOCK) notifyAll();
+    return m;
   }
 
+  @Override
   public synchronized Message get(MessageFilter filter) {
-    if (filter == null) return queue.poll();
-    Iterator<Message> it = queue.iterator();
-    while (it.hasNext()) {
-      Message m = it.next();
-      if (filter.matches(m)) {
-        it.remove();
-        return m;
-      }
-    }
-    return null;
+    Message m = queue.poll(filter);
+    if (m != null && getOverflowPolicy() == OverflowPolicy.BLOCK) notifyAll();
+    return m;
   }
 
+  @Override
   public synchronized void clear() {
     queue.clear();
+    notifyAll();
   }
 
+  @Override
   public synchronized int length() {
     return queue.size();
   }
 
-}
+  @Override
+  public synchronized int getCredit() {
+    if (maxQueueLen <= 0) return Integer.MAX_VALUE;
+    return Math.max(0, maxQueueLen - quarantine.size() - queue.size());
+  }
+
+  /////////// Private methods
 
+  private boolean isFull() {
+    return quarantine.size() + queue.size() >= maxQueueLen;
+  }
+
+}
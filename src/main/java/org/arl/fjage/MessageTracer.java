@@ -0,0 +1,324 @@
+/******************************************************************************
+
+Copyright (c) 2013, Mandar Chitre
+
+This file is part of fjage which is released under Simplified BSD License.
+See file LICENSE.txt or go to http://www.opensource.org/licenses/BSD-3-Clause
+for full license details.
+
+******************************************************************************/
+
+package org.arl.fjage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Records a compact binary trace of messages delivered by a container. Each
+ * message is recorded as a fixed-size record (timestamp, sender, recipient,
+ * message class, message id and size) into a lock-free ring buffer, without
+ * building any strings. A background thread drains the ring buffer to a
+ * trace file. If the ring buffer fills up faster than it is drained, records
+ * are dropped and counted, rather than blocking the sender.
+ * <p>
+ * A tracer is enabled on a container using
+ * {@link Container#setMessageTracer(MessageTracer)}. Trace files can be
+ * rendered as text using {@link #decode(File, PrintStream)}, or from the
+ * command line:
+ * <pre>
+ * java -cp fjage.jar org.arl.fjage.MessageTracer trace.bin
+ * </pre>
+ *
+ * @author  Mandar Chitre
+ */
+public class MessageTracer implements Closeable {
+
+  ////////// Private attributes
+
+  private static final int MAGIC = 0x464A5452;      // "FJTR"
+  private static final int VERSION = 1;
+  private static final int WORDS = 5;
+  private static final int DRAIN_INTERVAL = 100;
+  private static final byte SYMBOL = 'S';
+  private static final byte RECORD = 'R';
+
+  private final int capacity;
+  private final int mask;
+  private final long[] data;
+  private final AtomicLongArray stamps;             // seq+1 once slot seq is published
+  private final AtomicLong head = new AtomicLong();
+  private volatile long tail = 0;
+  private final AtomicLong dropped = new AtomicLong();
+  private final ConcurrentHashMap<String,Integer> agents = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<String,Integer> topics = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<String,Integer> classes = new ConcurrentHashMap<>();
+  private final List<String> symbols = new ArrayList<>();
+  private final DataOutputStream out;
+  private final Thread drainer;
+  private volatile boolean closed = false;
+  private int written = 0;
+  private Logger log = Logger.getLogger(getClass().getName());
+
+  ////////// Interface methods
+
+  /**
+   * Creates a message tracer with a ring buffer of 65536 records.
+   *
+   * @param file trace file to write.
+   * @throws IOException if the trace file cannot be created.
+   */
+  public MessageTracer(File file) throws IOException {
+    this(file, 65536);
+  }
+
+  /**
+   * Creates a message tracer.
+   *
+   * @param file trace file to write.
+   * @param capacity ring buffer capacity in records (rounded up to a power of 2).
+   * @throws IOException if the trace file cannot be created.
+   */
+  public MessageTracer(File file, int capacity) throws IOException {
+    if (capacity < 1) throw new IllegalArgumentException("Capacity must be positive");
+    int n = Integer.highestOneBit(capacity);
+    if (n < capacity) n <<= 1;
+    this.capacity = n;
+    mask = n-1;
+    data = new long[n*WORDS];
+    stamps = new AtomicLongArray(n);
+    out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 65536));
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    synchronized (symbols) {
+      symbols.add(null);                // symbol 0 denotes a missing agent id
+    }
+    drainer = new Thread(this::drainLoop, "MessageTracer");
+    drainer.setDaemon(true);
+    drainer.start();
+  }
+
+  /**
+   * Records a message. This method does not block or allocate memory, except
+   * when an agent, topic or message class is seen for the first time. Messages
+   * whose id has not yet been generated are recorded with an id of 0.
+   *
+   * @param time timestamp in milliseconds.
+   * @param m message.
+   * @param size size of the message on the wire in bytes, or 0 for local messages.
+   */
+  public void record(long time, Message m, int size) {
+    if (closed) return;
+    long h;
+    do {
+      h = head.get();
+      if (h - tail >= capacity) {
+        dropped.incrementAndGet();
+        return;
+      }
+    } while (!head.compareAndSet(h, h+1));
+    int i = (int)(h & mask);
+    int b = i*WORDS;
+    data[b] = time;
+    data[b+1] = (long)symbol(m.getSender()) << 32 | symbol(m.getRecipient()) & 0xFFFFFFFFL;
+    data[b+2] = (long)symbol(classes, m.getClass().getName(), null) << 32 | size & 0xFFFFFFFFL;
+    String id = m.msgID;    // not getMessageID(), to avoid generating an unused id
+    if (!parseUUID(id, data, b+3)) {
+      data[b+3] = 0;
+      data[b+4] = id == null ? 0 : id.hashCode();
+    }
+    stamps.lazySet(i, h+1);
+  }
+
+  /**
+   * Gets the number of records dropped because the ring buffer was full.
+   *
+   * @return number of dropped records.
+   */
+  public long getDropped() {
+    return dropped.get();
+  }
+
+  /**
+   * Drains all pending records, and closes the trace file.
+   */
+  @Override
+  public void close() {
+    if (closed) return;
+    closed = true;
+    drainer.interrupt();
+    try {
+      drainer.join();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+    try {
+      drain();
+      out.close();
+    } catch (IOException ex) {
+      log.log(Level.WARNING, "Failed to close message trace", ex);
+    }
+    if (dropped.get() > 0) log.warning("Message tracer dropped "+dropped.get()+" records");
+  }
+
+  /**
+   * Renders a trace file as text, one line per message.
+   *
+   * @param file trace file to read.
+   * @param ps stream to write text to.
+   * @throws IOException if the trace file cannot be read.
+   */
+  public static void decode(File file, PrintStream ps) throws IOException {
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      if (in.readInt() != MAGIC) throw new IOException("Not a message trace file");
+      int version = in.readInt();
+      if (version != VERSION) throw new IOException("Unsupported message trace version "+version);
+      List<String> names = new ArrayList<>();
+      names.add(null);
+      while (true) {
+        int tag = in.read();
+        if (tag < 0) break;
+        if (tag == SYMBOL) {
+          int id = in.readInt();
+          String name = in.readUTF();
+          while (names.size() <= id) names.add(null);
+          names.set(id, name);
+        } else if (tag == RECORD) {
+          long time = in.readLong();
+          long w1 = in.readLong();
+          long w2 = in.readLong();
+          long msb = in.readLong();
+          long lsb = in.readLong();
+          String id = msb != 0 ? new UUID(msb, lsb).toString() : "#"+Long.toHexString(lsb);
+          ps.println(time+" "+names.get((int)(w1 >>> 32))+" > "+names.get((int)w1)+" : "
+            +names.get((int)(w2 >>> 32))+" "+id+" "+(int)w2);
+        } else throw new IOException("Corrupt message trace file");
+      }
+    }
+  }
+
+  /**
+   * Command line tool to render trace files as text.
+   *
+   * @param args names of trace files.
+   */
+  public static void main(String[] args) {
+    if (args.length == 0) {
+      System.err.println("Usage: MessageTracer tracefile...");
+      System.exit(1);
+    }
+    for (String f: args) {
+      try {
+        decode(new File(f), System.out);
+      } catch (IOException ex) {
+        System.err.println(f+": "+ex.getMessage());
+      }
+    }
+  }
+
+  ////////// Private methods
+
+  private int symbol(AgentID aid) {
+    if (aid == null) return 0;
+    String name = aid.getName();
+    if (aid.isTopic()) return symbol(topics, name, "#");
+    return symbol(agents, name, "");
+  }
+
+  private int symbol(ConcurrentHashMap<String,Integer> map, String name, String prefix) {
+    Integer id = map.get(name);
+    if (id != null) return id;
+    synchronized (symbols) {
+      id = map.get(name);
+      if (id != null) return id;
+      id = symbols.size();
+      symbols.add(prefix == null ? name : prefix+name);
+      map.put(name, id);
+      return id;
+    }
+  }
+
+  // parses a UUID string into two longs, without allocating
+  private static boolean parseUUID(String s, long[] dst, int ofs) {
+    if (s == null || s.length() != 36) return false;
+    long msb = 0, lsb = 0;
+    int n = 0;
+    for (int i = 0; i < 36; i++) {
+      char c = s.charAt(i);
+      if (i == 8 || i == 13 || i == 18 || i == 23) {
+        if (c != '-') return false;
+        continue;
+      }
+      int d = Character.digit(c, 16);
+      if (d < 0) return false;
+      if (n++ < 16) msb = msb << 4 | d;
+      else lsb = lsb << 4 | d;
+    }
+    if (msb == 0) return false;
+    dst[ofs] = msb;
+    dst[ofs+1] = lsb;
+    return true;
+  }
+
+  private void drainLoop() {
+    while (!closed) {
+      try {
+        drain();
+        Thread.sleep(DRAIN_INTERVAL);
+      } catch (InterruptedException ex) {
+        break;
+      } catch (IOException ex) {
+        log.log(Level.WARNING, "Failed to write message trace", ex);
+        break;
+      }
+    }
+  }
+
+  private synchronized void drain() throws IOException {
+    long t = tail;
+    if (stamps.get((int)(t & mask)) != t+1) return;
+    while (true) {
+      int i = (int)(t & mask);
+      if (stamps.get(i) != t+1) break;
+      int b = i*WORDS;
+      int maxid = Math.max(Math.max((int)(data[b+1] >>> 32), (int)data[b+1]), (int)(data[b+2] >>> 32));
+      if (maxid >= written) writeSymbols();
+      out.writeByte(RECORD);
+      for (int k = 0; k < WORDS; k++)
+        out.writeLong(data[b+k]);
+      tail = ++t;
+    }
+    out.flush();
+  }
+
+  // symbols are registered before records that use them are published
+  private void writeSymbols() throws IOException {
+    synchronized (symbols) {
+      while (written < symbols.size()) {
+        String name = symbols.get(written);
+        if (name != null) {
+          out.writeByte(SYMBOL);
+          out.writeInt(written);
+          out.writeUTF(name);
+        }
+        written++;
+      }
+    }
+  }
+
+}
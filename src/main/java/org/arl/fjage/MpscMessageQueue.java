@@ -0,0 +1,260 @@
+/******************************************************************************
+
+Copyright (c) 2013, Mandar Chitre
+
+This file is part of fjage which is released under Simplified BSD License.
+See file LICENSE.txt or go to http://www.opensource.org/licenses/BSD-3-Clause
+for full license details.
+
+******************************************************************************/
+
+package org.arl.fjage;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Internal class representing a multi-producer single-consumer message queue.
+ * Messages may be added by any thread without locking, and are held in a
+ * lock-free linked inbox until the agent commits them. All other operations
+ * must only be called from the agent thread.
+ * <p>
+ * Producers reserve space with a compare-and-set on the total count of held
+ * messages, and only lock if they need to wait for space. As with {@link MessageQueue},
+ * the oldest messages are dropped on overflow by default. A producer that finds
+ * the queue full unlinks the oldest message from the inbox, so that the inbox
+ * stays bounded even if the agent does not commit messages for a while.
+ *
+ * @see Agent#setMessageQueue(AbstractMessageQueue)
+ */
+public class MpscMessageQueue extends AbstractMessageQueue {
+
+  /////////// Private attributes
+
+  private static final class Node {
+    Message msg;
+    volatile Node next;
+    Node(Message msg) {
+      this.msg = msg;
+    }
+  }
+
+  private final AtomicReference<Node> head;     // last node added by producers
+  private final AtomicReference<Node> tail;     // last node consumed by agent or dropped by producers
+  private final MessageIndex queue = new MessageIndex();
+  private final ArrayDeque<Message> quarantine = new ArrayDeque<>();
+  private volatile int maxQueueLen;
+  private final AtomicInteger count = new AtomicInteger();   // messages held, across inbox, quarantine and queue
+  private volatile int waiters = 0;
+
+  /////////// Interface methods
+
+  public MpscMessageQueue() {
+    this(0);  // unlimited queue
+  }
+
+  public MpscMessageQueue(int maxlen) {
+    maxQueueLen = maxlen;
+    Node n = new Node(null);
+    head = new AtomicReference<>(n);
+    tail = new AtomicReference<>(n);
+  }
+
+  @Override
+  public void setSize(int size) {
+    maxQueueLen = size;   // enforced on next add or commit
+    signal();
+  }
+
+  @Override
+  public boolean add(Message m, boolean wait) {
+    int max = maxQueueLen;
+    OverflowPolicy policy = getOverflowPolicy();
+    if (max <= 0) count.incrementAndGet();
+    else if (policy == OverflowPolicy.DROP_OLDEST) {
+      if (!reserve(max)) {
+        dropOldest();
+        count.incrementAndGet();
+      }
+    } else if (!reserve(max) && !(policy == OverflowPolicy.BLOCK && wait && await())) {
+      if (policy == OverflowPolicy.DROP_NEWEST) {
+        dropped(1);
+        return true;
+      }
+      rejected();
+      return false;
+    }
+    Node n = new Node(m);
+    head.getAndSet(n).next = n;
+    return true;
+  }
+
+  @Override
+  public boolean[] addAll(List<Message> msgs, boolean wait) {
+    boolean[] ok = new boolean[msgs.size()];
+    if (maxQueueLen > 0) {
+      for (int i = 0; i < ok.length; i++)
+        ok[i] = add(msgs.get(i), wait);
+      return ok;
+    }
+    // link the batch into a chain, and publish it with a single swap
+    if (ok.length == 0) return ok;
+    Node first = null;
+    Node last = null;
+    for (int i = 0; i < ok.length; i++) {
+      Node n = new Node(msgs.get(i));
+      if (last == null) first = n;
+      else last.next = n;
+      last = n;
+      ok[i] = true;
+    }
+    count.addAndGet(ok.length);
+    head.getAndSet(last).next = first;
+    return ok;
+  }
+
+  @Override
+  public void commit(Iterable<MessageFilter> exclusions) {
+    int max = maxQueueLen;
+    while (true) {
+      Node t = tail.get();
+      Node n = t.next;
+      if (n == null) break;
+      if (tail.compareAndSet(t, n)) {
+        quarantine.offer(n.msg);
+        n.msg = null;
+      }
+    }
+    int dropped = 0;
+    while (max > 0 && quarantine.size() > max) {
+      quarantine.poll();
+      dropped++;
+    }
+    Exclusions ex = new Exclusions(exclusions);
+    if (!ex.all) {
+      Iterator<Message> it = quarantine.iterator();
+      while (it.hasNext()) {
+        Message m = it.next();
+        if (!ex.matches(m)) {
+          it.remove();
+          queue.add(m);
+        }
+      }
+    }
+    dropped += queue.trim(max);
+    if (dropped > 0) {
+      dropped(dropped);
+      count.addAndGet(-dropped);
+    }
+  }
+
+  @Override
+  public Message get() {
+    return taken(queue.poll());
+  }
+
+  @Override
+  public Message get(MessageFilter filter) {
+    return taken(queue.poll(filter));
+  }
+
+  @Override
+  public void clear() {
+    count.addAndGet(-queue.size());
+    queue.clear();
+    signal();
+  }
+
+  @Override
+  public void setLanes(int lanes, LaneSelector selector, int burst) {
+    queue.setLanes(lanes, selector, burst);
+  }
+
+  @Override
+  public int getLanes() {
+    return queue.getLanes();
+  }
+
+  @Override
+  public int getCredit() {
+    int max = maxQueueLen;
+    if (max <= 0) return Integer.MAX_VALUE;
+    return Math.max(0, max - count.get());
+  }
+
+  /////////// Private methods
+
+  private Message taken(Message m) {
+    if (m != null) {
+      count.decrementAndGet();
+      if (waiters > 0) signal();
+    }
+    return m;
+  }
+
+  // unlinks the oldest message in the inbox, if any, racing with the agent and other producers
+  private void dropOldest() {
+    while (true) {
+      Node t = tail.get();
+      Node n = t.next;
+      if (n == null) return;
+      if (tail.compareAndSet(t, n)) {
+        n.msg = null;
+        count.decrementAndGet();
+        dropped(1);
+        return;
+      }
+    }
+  }
+
+  // reserves space for a message, if the queue is not full
+  private boolean reserve(int max) {
+    while (true) {
+      int n = count.get();
+      if (n >= max) return false;
+      if (count.compareAndSet(n, n+1)) return true;
+    }
+  }
+
+  // waits for space in the queue and reserves it, returns false on timeout
+  private synchronized boolean await() {
+    long t = getBlockTimeout();
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(t);
+    waiters++;
+    try {
+      while (getOverflowPolicy() == OverflowPolicy.BLOCK) {
+        int max = maxQueueLen;
+        if (max <= 0) {
+          count.incrementAndGet();
+          return true;
+        }
+        if (reserve(max)) return true;
+        if (t == Agent.BLOCKING) wait();
+        else if (t > 0) {
+          wait(t);
+          t = Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
+        }
+        else return false;
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    } finally {
+      waiters--;
+    }
+    return false;
+  }
+
+  private synchronized void signal() {
+    notifyAll();
+  }
+
+  @Override
+  public int length() {
+    return queue.size();
+  }
+
+}
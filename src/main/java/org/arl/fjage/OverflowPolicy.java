@@ -0,0 +1,44 @@
+/******************************************************************************
+
+Copyright (c) 2013, Mandar Chitre
+
+This file is part of fjage which is released under Simplified BSD License.
+See file LICENSE.txt or go to http://www.opensource.org/licenses/BSD-3-Clause
+for full license details.
+
+******************************************************************************/
+
+package org.arl.fjage;
+
+/**
+ * Policy applied when a message arrives at an agent whose message queue is full.
+ *
+ * @see Agent#setQueueOverflowPolicy(OverflowPolicy, long)
+ * @author  Mandar Chitre
+ */
+public enum OverflowPolicy {
+
+  /**
+   * Accept the message, and drop the oldest message in the queue. This is
+   * the default policy.
+   */
+  DROP_OLDEST,
+
+  /**
+   * Drop the incoming message. The sender is not informed.
+   */
+  DROP_NEWEST,
+
+  /**
+   * Reject the incoming message. The send fails, and the sender is informed
+   * through the return value of {@link Agent#send(Message)}.
+   */
+  REJECT,
+
+  /**
+   * Block the sender until there is space in the queue, or until a timeout.
+   * The message is rejected on timeout, or if the sender cannot wait.
+   */
+  BLOCK
+
+}
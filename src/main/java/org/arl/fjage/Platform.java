@@ -10,6 +10,7 @@ for full license details.
 
 package org.arl.fjage;
 
+import java.io.File;
 import java.net.*;
 import java.util.ArrayList;
 import java.util.Enumeration;
@@ -33,6 +34,10 @@ public abstract class Platform implements TimestampProvider {
   private String hostname = null;
   private int port = 1099;
   private NetworkInterface nif = null;
+  private AgentLocalRandom random = null;
+  private File storeRoot = null;
+  private boolean logTimestamps = true;
+  private final Object terminated = new Object();
 
   ////////// Interface methods for platforms to implement
 
@@ -62,8 +67,9 @@ public abstract class Platform implements TimestampProvider {
    *
    * @param task task to be executed.
    * @param millis delay in milliseconds after which to execute the task.
+   * @return handle to cancel the task, if it is no longer needed.
    */
-  public abstract void schedule(TimerTask task, long millis);
+  public abstract ScheduledTask schedule(TimerTask task, long millis);
 
   /**
    * Internal method called by a container when all agents are idle.
@@ -108,6 +114,8 @@ public abstract class Platform implements TimestampProvider {
   public void start() {
     for (Container c: containers)
       c.init();
+    for (Container c: containers)
+      c.awaitReady();
     for (Container c: containers)
       c.start();
     running = true;
@@ -121,11 +129,28 @@ public abstract class Platform implements TimestampProvider {
       for (Container c: containers) {
         if (c != null) c.shutdown();
       }
-      running = false;
+      synchronized (terminated) {
+        running = false;
+        terminated.notifyAll();
+      }
     });
     t.start();
   }
 
+  /**
+   * Waits until the platform has been shut down, either by a call to
+   * {@link #shutdown()} or by the platform itself (e.g. when a discrete
+   * event simulation has no more events).
+   *
+   * @throws InterruptedException if interrupted while waiting.
+   */
+  public void awaitTermination() throws InterruptedException {
+    synchronized (terminated) {
+      while (running)
+        terminated.wait();
+    }
+  }
+
   /**
    * Sets the hostname for the platform.
    *
@@ -212,6 +237,88 @@ public abstract class Platform implements TimestampProvider {
     return true;
   }
 
+  /**
+   * Sets the seed for the root random number generator of this platform. Each
+   * agent added to the platform after this call gets its own random number
+   * generator, seeded from the platform's root generator rather than the global
+   * root set by {@link AgentLocalRandom#setRootSeed(long)}. This allows several
+   * platforms in the same JVM to run repeatable simulations independently.
+   *
+   * @param seed random number seed.
+   */
+  public void setRandomSeed(long seed) {
+    AgentLocalRandom r = new AgentLocalRandom();
+    r.setSeed(seed);
+    random = r;
+  }
+
+  /**
+   * Gets the root random number generator for this platform.
+   *
+   * @return platform's random number generator if a seed was set using
+   *         {@link #setRandomSeed(long)}, the global root generator otherwise.
+   */
+  public AgentLocalRandom getRandom() {
+    AgentLocalRandom r = random;
+    return r != null ? r : AgentLocalRandom.root();
+  }
+
+  /**
+   * Sets the root folder for persistent stores of agents on this platform.
+   *
+   * @param folder root folder, or null to use the default store root.
+   * @see org.arl.fjage.persistence.Store#setRoot(File)
+   */
+  public void setStoreRoot(File folder) {
+    storeRoot = folder;
+  }
+
+  /**
+   * Gets the root folder for persistent stores of agents on this platform.
+   *
+   * @return root folder, or null if the default store root is used.
+   */
+  public File getStoreRoot() {
+    return storeRoot;
+  }
+
+  /**
+   * Enables/disables platform timestamps in logs. When enabled (default), the
+   * platform installs a {@link LogHandlerProxy} on the loggers of its agents, so
+   * that logs are timestamped with platform time. Since loggers are shared by
+   * agents with the same class and container name, this should be disabled when
+   * several platforms run concurrently in the same JVM. This must be set before
+   * agents are added.
+   *
+   * @param b true to enable, false to disable.
+   */
+  public void setLogTimestamps(boolean b) {
+    logTimestamps = b;
+  }
+
+  /**
+   * Checks if platform timestamps in logs are enabled.
+   *
+   * @return true if enabled, false otherwise.
+   * @see #setLogTimestamps(boolean)
+   */
+  public boolean getLogTimestamps() {
+    return logTimestamps;
+  }
+
+  /**
+   * Internal method called by a container to allow the platform to defer
+   * delivery of a message. A platform that defers delivery is responsible for
+   * delivering the message later using {@link Container#deliver(Message)}.
+   *
+   * @param container container delivering the message.
+   * @param m message to deliver.
+   * @return true if delivery is deferred, false to deliver immediately.
+   */
+  boolean defer(Container container, Message m) {
+    return false;
+  }
+
   /**
    * Get build version information from JAR.
    *
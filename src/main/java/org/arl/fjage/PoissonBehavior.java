@@ -143,6 +143,11 @@ public class PoissonBehavior extends Behavior {
     return Integer.MIN_VALUE;
   }
 
+  @Override
+  boolean isTimerOnly() {
+    return true;
+  }
+
   /**
    * Creates a new PoissonBehavior which runs the specified Runnable on each arrival.
    *
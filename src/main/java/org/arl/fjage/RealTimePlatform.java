@@ -10,7 +10,6 @@ for full license details.
 
 package org.arl.fjage;
 
-import java.util.Timer;
 import java.util.TimerTask;
 
 /**
@@ -34,7 +33,7 @@ public final class RealTimePlatform extends Platform {
 
   /////////// Private attributes
 
-  private Timer timer = new Timer("fjage-timer", true);
+  private TimerWheel timer = new TimerWheel("fjage-timer");
 
   /////////// Implementation methods
 
@@ -49,8 +48,8 @@ public final class RealTimePlatform extends Platform {
   }
 
   @Override
-  public void schedule(TimerTask task, long millis) {
-    timer.schedule(task, Math.max(0, millis));
+  public ScheduledTask schedule(TimerTask task, long millis) {
+    return timer.schedule(task, millis);
   }
 
   @Override
@@ -0,0 +1,55 @@
+/******************************************************************************
+
+Copyright (c) 2013, Mandar Chitre
+
+This file is part of fjage which is released under Simplified BSD License.
+See file LICENSE.txt or go to http://www.opensource.org/licenses/BSD-3-Clause
+for full license details.
+
+******************************************************************************/
+
+package org.arl.fjage;
+
+/**
+ * Message filter that selects replies to a given message. Message queues
+ * index messages by the message they are in reply to, and so this filter
+ * is matched in constant time, irrespective of the queue length.
+ */
+public final class ReplyMessageFilter implements MessageFilter {
+
+  private final String messageID;
+
+  /**
+   * Creates a filter to select replies to a given message.
+   *
+   * @param request message to select replies to.
+   */
+  public ReplyMessageFilter(Message request) {
+    this(request.getMessageID());
+  }
+
+  /**
+   * Creates a filter to select replies to a message with a given message id.
+   *
+   * @param messageID message id of the message to select replies to.
+   */
+  public ReplyMessageFilter(String messageID) {
+    if (messageID == null) throw new IllegalArgumentException("Message does not have an ID");
+    this.messageID = messageID;
+  }
+
+  /**
+   * Gets the message id of the message to select replies to.
+   *
+   * @return message id.
+   */
+  public String getMessageID() {
+    return messageID;
+  }
+
+  @Override
+  public boolean matches(Message m) {
+    return messageID.equals(m.getInReplyTo());
+  }
+
+}
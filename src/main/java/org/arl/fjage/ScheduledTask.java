@@ -0,0 +1,38 @@
+/******************************************************************************
+
+Copyright (c) 2013, Mandar Chitre
+
+This file is part of fjage which is released under Simplified BSD License.
+See file LICENSE.txt or go to http://www.opensource.org/licenses/BSD-3-Clause
+for full license details.
+
+******************************************************************************/
+
+package org.arl.fjage;
+
+/**
+ * A handle to a task scheduled on a platform using
+ * {@link Platform#schedule(java.util.TimerTask, long)}. The handle allows a
+ * pending task to be cancelled, e.g. when the agent it was meant to wake up
+ * has been woken up earlier by some other event.
+ *
+ * @author  Mandar Chitre
+ */
+public interface ScheduledTask {
+
+  /**
+   * Cancels the task, if it has not yet been executed.
+   *
+   * @return true if the task was cancelled, false if it has already been
+   *         executed or cancelled.
+   */
+  public boolean cancel();
+
+  /**
+   * Checks if the task was cancelled before it was executed.
+   *
+   * @return true if cancelled, false otherwise.
+   */
+  public boolean isCancelled();
+
+}
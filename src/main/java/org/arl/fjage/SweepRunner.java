@@ -0,0 +1,191 @@
+/******************************************************************************
+
+Copyright (c) 2013, Mandar Chitre
+
+This file is part of fjage which is released under Simplified BSD License.
+See file LICENSE.txt or go to http://www.opensource.org/licenses/BSD-3-Clause
+for full license details.
+
+******************************************************************************/
+
+package org.arl.fjage;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TimerTask;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs many independent discrete event simulations in parallel within the same
+ * JVM, e.g. for parameter sweeps. Each simulation runs on its own
+ * {@link DiscreteEventSimulator}, with its own random number generator root,
+ * event counter and persistent store root, and log timestamps disabled.
+ * <p>
+ * Typical use of the sweep runner is shown below:
+ * <pre>
+ * SweepRunner runner = new SweepRunner(8);
+ * runner.setSeed(42);
+ * List&lt;Double&gt; results = runner.run(Arrays.asList(1, 2, 5, 10), (platform, n) -&gt; {
+ *   Container container = new Container(platform);
+ *   MyAgent agent = new MyAgent(n);
+ *   container.add("myAgent", agent);
+ *   return () -&gt; agent.getThroughput();     // called after the simulation ends
+ * });
+ * </pre>
+ * Simulations in a sweep should not use {@link AgentLocalRandom#setRootSeed(long)},
+ * {@link org.arl.fjage.persistence.Store#setRoot(File)} or other global
+ * settings, as these are shared by all simulations in the JVM.
+ *
+ * @author  Mandar Chitre
+ */
+public class SweepRunner {
+
+  /**
+   * Sets up a simulation for one point in a parameter sweep.
+   *
+   * @param <P> parameter type.
+   * @param <R> result type.
+   */
+  public interface Simulation<P,R> {
+
+    /**
+     * Sets up containers and agents on the platform for a given parameter. The
+     * platform is started by the sweep runner after this method returns.
+     *
+     * @param platform platform to set up.
+     * @param param parameter for this simulation.
+     * @return callable that computes the result once the simulation ends.
+     * @throws Exception if the simulation cannot be set up.
+     */
+    public Callable<R> setup(DiscreteEventSimulator platform, P param) throws Exception;
+
+  }
+
+  ////////// Private attributes
+
+  private final int threads;
+  private long seed = 0;
+  private File storeRoot = null;
+  private long timeLimit = 0;
+  private Logger log = Logger.getLogger(getClass().getName());
+
+  ////////// Interface methods
+
+  /**
+   * Creates a sweep runner that uses one thread per available processor.
+   */
+  public SweepRunner() {
+    this(Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Creates a sweep runner.
+   *
+   * @param threads maximum number of simulations to run concurrently.
+   */
+  public SweepRunner(int threads) {
+    if (threads < 1) throw new IllegalArgumentException("Number of threads must be positive");
+    this.threads = threads;
+  }
+
+  /**
+   * Sets the base random number seed. The i-th simulation of a sweep uses a
+   * platform random seed of seed+i, so sweeps are repeatable.
+   *
+   * @param seed base random number seed.
+   */
+  public void setSeed(long seed) {
+    this.seed = seed;
+  }
+
+  /**
+   * Sets the root folder for persistent stores. The i-th simulation of a sweep
+   * uses a folder "run-i" under this folder as its store root.
+   *
+   * @param folder root folder, or null to use the default store root.
+   */
+  public void setStoreRoot(File folder) {
+    storeRoot = folder;
+  }
+
+  /**
+   * Sets a limit on the simulation time for each simulation. A simulation is
+   * shut down when it reaches this time, if it has not already ended.
+   *
+   * @param millis simulation time limit in milliseconds, or 0 for no limit.
+   */
+  public void setTimeLimit(long millis) {
+    timeLimit = millis;
+  }
+
+  /**
+   * Runs a simulation for each parameter, and collects the results. This method
+   * blocks until all simulations have ended. If a simulation fails, the failure
+   * is logged, and its result is null. A simulation without a time limit ends
+   * only when it shuts its platform down or runs out of events, so a simulation
+   * that keeps generating events blocks this method forever.
+   *
+   * @param <P> parameter type.
+   * @param <R> result type.
+   * @param params list of parameters, one per simulation.
+   * @param sim simulation setup.
+   * @return list of results, in the same order as the parameters.
+   * @throws InterruptedException if interrupted while waiting for simulations.
+   */
+  public <P,R> List<R> run(List<P> params, Simulation<P,R> sim) throws InterruptedException {
+    ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, Math.max(1, params.size())));
+    try {
+      List<Future<R>> futures = new ArrayList<>();
+      for (int i = 0; i < params.size(); i++) {
+        final int run = i;
+        final P param = params.get(i);
+        futures.add(pool.submit(() -> runOne(run, param, sim)));
+      }
+      List<R> results = new ArrayList<>();
+      for (int i = 0; i < futures.size(); i++) {
+        try {
+          results.add(futures.get(i).get());
+        } catch (ExecutionException ex) {
+          log.log(Level.SEVERE, "Simulation "+i+" failed", ex.getCause());
+          results.add(null);
+        }
+      }
+      return results;
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  ////////// Private methods
+
+  private <P,R> R runOne(int run, P param, Simulation<P,R> sim) throws Exception {
+    final DiscreteEventSimulator platform = new DiscreteEventSimulator();
+    platform.setRandomSeed(seed+run);
+    platform.setLogTimestamps(false);
+    if (storeRoot != null) platform.setStoreRoot(new File(storeRoot, "run-"+run));
+    Callable<R> result = sim.setup(platform, param);
+    if (timeLimit > 0) {
+      platform.schedule(new TimerTask() {
+        @Override
+        public void run() {
+          platform.shutdown();
+        }
+      }, timeLimit);
+    }
+    try {
+      platform.start();
+      platform.awaitTermination();
+    } finally {
+      if (platform.isRunning()) platform.shutdown();    // if interrupted by run()
+    }
+    return result == null ? null : result.call();
+  }
+
+}
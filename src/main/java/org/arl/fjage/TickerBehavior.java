@@ -138,6 +138,11 @@ public class TickerBehavior extends Behavior {
     return Integer.MIN_VALUE;
   }
 
+  @Override
+  boolean isTimerOnly() {
+    return true;
+  }
+
   /**
    * Creates a new TickerBehavior which runs the specified Runnable every specified period.
    *
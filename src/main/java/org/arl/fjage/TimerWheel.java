@@ -0,0 +1,206 @@
+/******************************************************************************
+
+Copyright (c) 2013, Mandar Chitre
+
+This file is part of fjage which is released under Simplified BSD License.
+See file LICENSE.txt or go to http://www.opensource.org/licenses/BSD-3-Clause
+for full license details.
+
+******************************************************************************/
+
+package org.arl.fjage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TimerTask;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Internal class implementing a hierarchical timing wheel with a resolution
+ * of 1 ms. The first level has 256 slots of 1 ms each, and each of the three
+ * higher levels has 64 slots, each spanning a full rotation of the level
+ * below. Timers are cascaded down to lower levels as their deadline
+ * approaches. Scheduling and cancelling a timer takes constant time, and
+ * timers with the same deadline share a slot and are fired together.
+ * <p>
+ * Tasks are executed on a single daemon thread, which only wakes up when a
+ * first level slot is due or a higher level needs to be cascaded.
+ */
+final class TimerWheel implements Runnable {
+
+  /////////// Private attributes
+
+  private static final int L0_BITS = 8;
+  private static final int LN_BITS = 6;
+  private static final int LEVELS = 4;
+  private static final int[] SHIFT = { 0, L0_BITS, L0_BITS+LN_BITS, L0_BITS+2*LN_BITS };
+  private static final int[] MASK = { (1<<L0_BITS)-1, (1<<LN_BITS)-1, (1<<LN_BITS)-1, (1<<LN_BITS)-1 };
+  private static final long MAX_SPAN = 1L << (SHIFT[LEVELS-1]+LN_BITS);
+  private static final long NEVER = Long.MAX_VALUE;
+
+  private final class Entry implements ScheduledTask {
+    final TimerTask task;
+    long deadline;
+    int level = -1;
+    int slot = -1;
+    Entry prev, next;
+    boolean linked = false;
+    volatile boolean cancelled = false;
+    Entry(TimerTask task) {
+      this.task = task;
+    }
+    @Override
+    public boolean cancel() {
+      synchronized (TimerWheel.this) {
+        if (!linked) return false;
+        unlink(this);
+        cancelled = true;
+        return true;
+      }
+    }
+    @Override
+    public boolean isCancelled() {
+      return cancelled;
+    }
+  }
+
+  private final Entry[][] slots = new Entry[LEVELS][];    // heads of slot lists
+  private final int[] counts = new int[LEVELS];
+  private final long epoch = System.nanoTime();
+  private final Logger log = Logger.getLogger(getClass().getName());
+  private long current = 0;       // last processed tick
+  private long wakeAt = NEVER;    // tick that the timer thread is waiting for
+
+  /////////// Interface methods
+
+  TimerWheel(String name) {
+    for (int k = 0; k < LEVELS; k++)
+      slots[k] = new Entry[MASK[k]+1];
+    Thread t = new Thread(this, name);
+    t.setDaemon(true);
+    t.start();
+  }
+
+  ScheduledTask schedule(TimerTask task, long millis) {
+    Entry e = new Entry(task);
+    long dt = System.nanoTime() - epoch + Math.max(0, millis) * 1000000;
+    e.deadline = (dt + 999999) / 1000000;     // never fire early
+    synchronized (this) {
+      insert(e, Math.max(e.deadline, current+1));
+      if (e.deadline < wakeAt) notify();
+    }
+    return e;
+  }
+
+  @Override
+  public void run() {
+    List<Entry> due = new ArrayList<>();
+    while (true) {
+      synchronized (this) {
+        long now = now();
+        while (current < now) {
+          current++;
+          advance(due);
+          if (!due.isEmpty()) break;
+        }
+        if (due.isEmpty()) {
+          wakeAt = nextTick();
+          try {
+            if (wakeAt == NEVER) wait();
+            else {
+              long dt = epoch + wakeAt * 1000000 - System.nanoTime();
+              if (dt > 0) wait(dt / 1000000, (int)(dt % 1000000));
+            }
+          } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return;
+          }
+          wakeAt = NEVER;
+          continue;
+        }
+      }
+      for (Entry e: due) {
+        try {
+          e.task.run();
+        } catch (Throwable ex) {
+          log.log(Level.WARNING, "Exception in timer task", ex);
+        }
+      }
+      due.clear();
+    }
+  }
+
+  /////////// Private methods
+
+  private long now() {
+    return (System.nanoTime() - epoch) / 1000000;
+  }
+
+  // processes tick "current": cascades higher levels as needed, and collects due entries
+  private void advance(List<Entry> due) {
+    for (int k = LEVELS-1; k > 0; k--) {
+      if ((current & ((1L << SHIFT[k]) - 1)) != 0) continue;
+      int i = (int)((current >> SHIFT[k]) & MASK[k]);
+      Entry e = slots[k][i];
+      while (e != null) {
+        Entry next = e.next;
+        unlink(e);
+        insert(e, Math.max(e.deadline, current));
+        e = next;
+      }
+    }
+    int i = (int)(current & MASK[0]);
+    Entry e = slots[0][i];
+    while (e != null) {
+      Entry next = e.next;
+      unlink(e);
+      due.add(e);
+      e = next;
+    }
+  }
+
+  private void insert(Entry e, long t) {
+    long delta = t - current;
+    int k = 0;
+    if (delta > MASK[0]) {
+      k = 1;
+      while (k < LEVELS-1 && delta >= 1L << (SHIFT[k]+LN_BITS)) k++;
+      if (delta >= MAX_SPAN) t = current + MAX_SPAN - 1;    // cascaded again when due
+    }
+    int i = (int)((t >> SHIFT[k]) & MASK[k]);
+    e.level = k;
+    e.slot = i;
+    e.prev = null;
+    e.next = slots[k][i];
+    if (e.next != null) e.next.prev = e;
+    slots[k][i] = e;
+    e.linked = true;
+    counts[k]++;
+  }
+
+  private void unlink(Entry e) {
+    if (e.prev != null) e.prev.next = e.next;
+    else slots[e.level][e.slot] = e.next;
+    if (e.next != null) e.next.prev = e.prev;
+    e.prev = null;
+    e.next = null;
+    e.linked = false;
+    counts[e.level]--;
+  }
+
+  // next tick at which a first level slot is due or a higher level cascades
+  private long nextTick() {
+    int pending = 0;
+    for (int k = 0; k < LEVELS; k++)
+      pending += counts[k];
+    if (pending == 0) return NEVER;
+    boolean higher = pending > counts[0];
+    for (long t = current+1; t <= current+MASK[0]+1; t++) {
+      if (slots[0][(int)(t & MASK[0])] != null) return t;
+      if (higher && (t & MASK[0]) == 0) return t;
+    }
+    return current+MASK[0]+1;
+  }
+
+}
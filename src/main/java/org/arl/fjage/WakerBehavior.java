@@ -136,6 +136,11 @@ public class WakerBehavior extends Behavior {
     return Integer.MIN_VALUE;
   }
 
+  @Override
+  boolean isTimerOnly() {
+    return true;
+  }
+
   /**
    * Creates a new WakerBehavior which runs the specified Runnable once the specified delay expires.
    *
@@ -27,6 +27,10 @@ import java.util.logging.Level;
  * marked {@code final}), getters/setters using JavaBean convention, or
  * by overridding {@link #getParam(Parameter, int)} and
  * {@link #setParam(Parameter, int, Object)} methods of this behavior.
+ * <p>
+ * In addition to the agent's parameters, runtime metrics of the agent (see
+ * {@link AgentMetrics}) are available as read-only automatic parameters, when
+ * requested by name (e.g. "metrics.mailboxDepth").
  */
 public class ParameterMessageBehavior extends MessageBehavior {
 
@@ -208,6 +212,13 @@ public class ParameterMessageBehavior extends MessageBehavior {
         String methodNameFragment = fldName.substring(0, 1).toUpperCase() + fldName.substring(1);
         Object evalue = e.getValue();
         Object current = null;
+        if (ndx < 0 && fldName.startsWith(AgentMetrics.PREFIX)) {
+          current = agent.getMetrics().get(fldName);                      // automatic metric parameters
+          if (current != null) {
+            rsp.set(e.param, current, true);
+            continue;
+          }
+        }
         try {
           if (fldName.equals("type")) current = agent.getClass().getName(); // special automatic parameter
           else if (ndx < 0) current = MethodUtils.invokeMethod(agent, "get" + methodNameFragment);
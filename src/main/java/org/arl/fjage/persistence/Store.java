@@ -9,6 +9,7 @@ import java.security.NoSuchAlgorithmException;
 import org.apache.commons.io.FileUtils;
 import org.arl.fjage.Agent;
 import org.arl.fjage.FjageException;
+import org.arl.fjage.Platform;
 
 /**
  * Persistent storage API. The default store is in the user's home directory under
@@ -26,6 +27,10 @@ public class Store implements Closeable {
   private final MessageDigest md;
 
   protected Store(String clazz) {
+    this(storeRoot, clazz);
+  }
+
+  protected Store(File storeRoot, String clazz) {
     this.clazz = clazz;
     clazzLoader = defaultClazzLoader;
     try {
@@ -53,15 +58,21 @@ public class Store implements Closeable {
   }
 
   /**
-   * Gets a store instance for an agent.
+   * Gets a store instance for an agent. If the agent's platform has a store
+   * root set, the store is located under that root, otherwise it is located
+   * under the default root.
    */
   public static Store getInstance(Agent agent) {
     String clazz = agent.getClass().getName();
+    Platform platform = agent.getPlatform();
+    File base = platform == null ? null : platform.getStoreRoot();
+    if (base == null) base = storeRoot;
+    String key = new File(base, clazz).getPath();
     synchronized (instances) {
-      Store store = instances.get(clazz);
+      Store store = instances.get(key);
       if (store == null) {
-        store = new Store(clazz);
-        instances.put(clazz, store);
+        store = new Store(base, clazz);
+        instances.put(key, store);
       }
       return store;
     }
@@ -261,7 +272,7 @@ public class Store implements Closeable {
   public void close() {
     if (root == null) return;
     synchronized (instances) {
-      instances.remove(clazz);
+      instances.remove(root.getPath());
     }
     clazz = null;
     root = null;
@@ -103,7 +103,7 @@ public class ConnectionHandler extends Thread {
         // do nothing
       }
       if (s == null) break;
-      log.fine(this.getName() +" <<< "+s);
+      if (log.isLoggable(Level.FINE)) log.fine(this.getName() +" <<< "+s);
       lastRxTime = System.currentTimeMillis();
       if (s.equals(SIGN_OFF)) {
         alive = false;
@@ -113,6 +113,7 @@ public class ConnectionHandler extends Thread {
       if (!alive) {
         alive = true;
         log.fine("Connection alive");
+        container.connectionAlive(this);
         if (container instanceof MasterContainer && !classified) {
           // probe the peer's agent list to classify lightweight gateway connections
           try {
@@ -226,7 +227,7 @@ public class ConnectionHandler extends Thread {
     if (out == null) return;
     try {
       out.write((s+"\n").getBytes(StandardCharsets.UTF_8));
-      log.fine(this.getName() +" >>> "+s);
+      if (log.isLoggable(Level.FINE)) log.fine(this.getName() +" >>> "+s);
       conn.waitOutputCompletion(1000);
     } catch(IOException ex) {
       if (!s.equals(SIGN_OFF)) {
@@ -236,6 +237,38 @@ public class ConnectionHandler extends Thread {
     }
   }
 
+  synchronized void send(List<String> msgs) {
+    if (out == null || msgs.isEmpty()) return;
+    StringBuilder sb = new StringBuilder();
+    for (String s: msgs)
+      sb.append(s).append('\n');
+    try {
+      out.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+      if (log.isLoggable(Level.FINE)) {
+        for (String s: msgs)
+          log.fine(this.getName() +" >>> "+s);
+      }
+      conn.waitOutputCompletion(1000);
+    } catch(IOException ex) {
+      log.log(Level.WARNING, "Failed to send "+msgs.size()+" messages", ex);
+      close();
+    }
+  }
+
+  void sendAsync(List<String> msgs) {
+    if (conn == null) return;
+    if (!alive && container instanceof MasterContainer) return;
+    try {
+      sendExecutor.execute(() -> {
+        if (conn == null) return;
+        if (!alive && container instanceof MasterContainer) return;
+        send(msgs);
+      });
+    } catch (RejectedExecutionException ex) {
+      // Connection is closing.
+    }
+  }
+
   void sendAsync(String s) {
     if (conn == null) return;
     if (!alive && container instanceof MasterContainer) return;
@@ -252,6 +285,7 @@ public class ConnectionHandler extends Thread {
 
   JsonMessage request(JsonMessage msg, long timeout) {
     if (conn == null) return null;
+    if (out == null) return null;     // not started yet, so no response can be read
     if (!alive && container instanceof MasterContainer) return null;
     PendingRequest request = new PendingRequest();
     pending.put(msg.id, request);
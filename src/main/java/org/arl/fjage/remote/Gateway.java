@@ -11,6 +11,13 @@ for full license details.
 package org.arl.fjage.remote;
 
 import java.io.*;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 import org.arl.fjage.*;
 
 /**
@@ -40,6 +47,14 @@ public class Gateway implements Messenger, Closeable {
   protected Container container = null;
   protected Agent agent = null;
   protected boolean shutdownContainer = true;
+  private final ReentrantLock receiveLock = new ReentrantLock();
+  private final ReentrantLock inboxLock = new ReentrantLock();
+  private final Condition arrived = inboxLock.newCondition();
+  private final List<MessageFilter> noExclusions = Collections.emptyList();
+  private MessageQueue inbox = null;
+  private long arrivals = 0;                // guarded by inboxLock
+  private volatile boolean concurrent = false;
+  private String name = null;
 
   protected Gateway() {
     // empty constructor to allow extending gateway
@@ -114,35 +129,91 @@ public class Gateway implements Messenger, Closeable {
     init();
   }
 
+  /**
+   * Creates a gateway based on an existing container, with a given agent name.
+   */
+  Gateway(Container container, String name) {
+    this.container = container;
+    this.name = name;
+    shutdownContainer = false;
+    init();
+  }
+
   protected void init() {
+    inbox = new MessageQueue(256);
     agent = new Agent() {
       private Message rsp;
-      private final Object sync = new Object();
+      private boolean done;
+      private final ReentrantLock sync = new ReentrantLock();
+      private final Condition received = sync.newCondition();
       @Override
       public Message receive(final MessageFilter filter, long timeout) {
         if (Thread.currentThread().getId() == tid) return super.receive(filter, timeout);
-        synchronized (sync) {
+        sync.lock();
+        try {
           rsp = null;
-          try {
-            add(new OneShotBehavior() {
-              @Override
-              public void action() {
-                rsp = receive(filter, timeout);
-                synchronized (sync) {
-                  sync.notify();
-                }
+          done = false;
+          add(new OneShotBehavior() {
+            @Override
+            public void action() {
+              Message m = receive(filter, timeout);
+              sync.lock();
+              try {
+                rsp = m;
+                done = true;
+                received.signal();
+              } finally {
+                sync.unlock();
               }
-            });
-            sync.wait();
-          } catch (InterruptedException ex) {
-            Thread.currentThread().interrupt();
-            thread.interrupt();
-          }
+            }
+          });
+          while (!done)
+            received.await();
           return rsp;
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+          if (thread != null) thread.interrupt();
+          return rsp;
+        } finally {
+          sync.unlock();
         }
       }
+      @Override
+      public void wake() {
+        super.wake();
+        signalArrival();
+      }
     };
-    container.add(getAgentID().getName(), agent);
+    agent.setMessageQueue(inbox);
+    if (container.add(getAgentID().getName(), agent) == null) {
+      if (shutdownContainer) container.shutdown();
+      throw new FjageException("Could not add gateway agent "+getAgentID());
+    }
+  }
+
+  /**
+   * Enables/disables concurrent mode. By default, the gateway hands each call
+   * over to its internal agent, and only one thread may receive at a time. In
+   * concurrent mode, messages are sent directly from the calling thread, any
+   * number of threads may receive messages concurrently, and responses to
+   * concurrent requests are matched to each request as they arrive, without
+   * involving the internal agent's thread. Concurrent mode is meant for gateways
+   * on a real-time platform.
+   *
+   * @param b true to enable concurrent mode, false to disable it.
+   */
+  public void setConcurrent(boolean b) {
+    concurrent = b;
+  }
+
+  /**
+   * Checks if concurrent mode is enabled.
+   *
+   * @return true if enabled, false otherwise.
+   * @see #setConcurrent(boolean)
+   */
+  public boolean getConcurrent() {
+    return concurrent;
   }
 
   /**
@@ -177,7 +248,7 @@ public class Gateway implements Messenger, Closeable {
    * @return agent ID
    */
   public AgentID getAgentID() {
-    return new AgentID("gateway-"+hashCode());
+    return new AgentID(name != null ? name : "gateway-"+hashCode());
   }
 
   /**
@@ -199,11 +270,14 @@ public class Gateway implements Messenger, Closeable {
     }
     agent = null;
     container = null;
+    signalArrival();
   }
 
   @Override
   public boolean send(final Message m) {
+    Agent agent = this.agent;
     if (agent == null) return false;
+    if (concurrent) return agent.send(m);
     agent.add(new OneShotBehavior() {
       @Override
       public void action() {
@@ -214,9 +288,15 @@ public class Gateway implements Messenger, Closeable {
   }
 
   @Override
-  public synchronized Message receive(final MessageFilter filter, long timeout) {
-    if (agent == null) return null;
-    return agent.receive(filter, timeout);
+  public Message receive(final MessageFilter filter, long timeout) {
+    if (concurrent && inbox != null) return poll(filter, timeout);
+    receiveLock.lock();
+    try {
+      if (agent == null) return null;
+      return agent.receive(filter, timeout);
+    } finally {
+      receiveLock.unlock();
+    }
   }
 
   public Message receive(final MessageFilter filter) {
@@ -235,7 +315,7 @@ public class Gateway implements Messenger, Closeable {
 
   @Override
   public Message receive(final Class<?> cls, long timeout) {
-    return receive(cls::isInstance, timeout);
+    return receive(new ClassMessageFilter(cls), timeout);
   }
 
   @Override
@@ -247,15 +327,7 @@ public class Gateway implements Messenger, Closeable {
   public Message receive(final Message m, long timeout) {
     if (container instanceof SlaveContainer)
       ((SlaveContainer)container).checkAuthFailure(m.getMessageID());
-    Message rsp = receive(new MessageFilter() {
-      private final String mid = m.getMessageID();
-      @Override
-      public boolean matches(Message m) {
-        String s = m.getInReplyTo();
-        if (s == null) return false;
-        return s.equals(mid);
-      }
-    }, timeout);
+    Message rsp = receive(new ReplyMessageFilter(m), timeout);
     if (rsp != null) return rsp;
     if (container instanceof SlaveContainer)
       ((SlaveContainer)container).checkAuthFailure(m.getMessageID());
@@ -269,8 +341,27 @@ public class Gateway implements Messenger, Closeable {
 
   @Override
   public Message request(Message msg, long timeout) {
-    send(msg);
-    return receive(msg, timeout);
+    Agent agent = this.agent;
+    if (!concurrent || agent == null) {
+      send(msg);
+      return receive(msg, timeout);
+    }
+    Message rsp = null;
+    try {
+      Future<Message> f = agent.requestAsync(msg, timeout);
+      if (container instanceof SlaveContainer) ((SlaveContainer)container).checkAuthFailure(msg.getMessageID());
+      rsp = f.get();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException ex) {
+      Throwable cause = ex.getCause();
+      if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+      FjageException fex = new FjageException("Request "+msg.getMessageID()+" failed: "+cause);
+      fex.initCause(cause);
+      throw fex;
+    }
+    if (rsp == null && container instanceof SlaveContainer) ((SlaveContainer)container).checkAuthFailure(msg.getMessageID());
+    return rsp;
   }
 
   @Override
@@ -437,6 +528,51 @@ public class Gateway implements Messenger, Closeable {
 
   ////////////// Private methods
 
+  // receives a message from the inbox in concurrent mode, on the calling thread
+  private Message poll(MessageFilter filter, long timeout) {
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+    while (agent != null) {
+      long seq;
+      inboxLock.lock();
+      try {
+        seq = arrivals;
+      } finally {
+        inboxLock.unlock();
+      }
+      inbox.commit(noExclusions);
+      Message m = filter == null ? inbox.get() : inbox.get(filter);
+      if (m != null || timeout == NON_BLOCKING) return m;
+      inboxLock.lock();
+      try {
+        while (seq == arrivals && agent != null) {
+          if (timeout == BLOCKING) arrived.await();
+          else {
+            long dt = deadline - System.nanoTime();
+            if (dt <= 0) return null;
+            arrived.awaitNanos(dt);
+          }
+        }
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        return null;
+      } finally {
+        inboxLock.unlock();
+      }
+    }
+    return null;
+  }
+
+  // wakes up threads waiting for messages in concurrent mode
+  private void signalArrival() {
+    inboxLock.lock();
+    try {
+      arrivals++;
+      arrived.signalAll();
+    } finally {
+      inboxLock.unlock();
+    }
+  }
+
   @Override
   public void finalize() {
     close();
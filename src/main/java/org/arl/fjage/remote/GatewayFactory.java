@@ -0,0 +1,144 @@
+/******************************************************************************
+
+Copyright (c) 2016-2018, Mandar Chitre
+
+This file is part of fjage which is released under Simplified BSD License.
+See file LICENSE.txt or go to http://www.opensource.org/licenses/BSD-3-Clause
+for full license details.
+
+******************************************************************************/
+
+package org.arl.fjage.remote;
+
+import java.io.Closeable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
+import org.arl.fjage.*;
+
+/**
+ * Factory for lightweight gateways that share a connection to a master container.
+ * Creating a {@link Gateway} directly opens a new connection to the master, with
+ * its own platform, slave container and threads. A gateway factory instead keeps
+ * one slave container per master, and each gateway it creates is simply another
+ * agent in that container. The master container sees a single connection, and
+ * routes messages for all gateways over it.
+ * <p>
+ * Gateways created by the factory run in concurrent mode (see
+ * {@link Gateway#setConcurrent(boolean)}), and their agents run on a shared
+ * thread pool. Closing a gateway removes its agent, but keeps the shared
+ * connection open until the factory is closed. Since gateways share the
+ * connection, authentication using {@link Gateway#authenticate(String)}
+ * applies to all gateways on the same connection.
+ *
+ * @author  Mandar Chitre
+ */
+public class GatewayFactory implements Closeable {
+
+  //////////// Private attributes
+
+  private final Map<String,SlaveContainer> links = new HashMap<>();
+  private final Executor executor;
+  private final boolean shutdownExecutor;
+  private boolean closed = false;
+
+  /////////// Interface methods
+
+  /**
+   * Creates a gateway factory, with gateway agents running on a thread pool
+   * owned by the factory.
+   */
+  public GatewayFactory() {
+    executor = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    shutdownExecutor = true;
+  }
+
+  /**
+   * Creates a gateway factory, with gateway agents running on a specified executor.
+   *
+   * @param executor executor to run gateway agents on, or null for a thread per gateway.
+   * @see Container#setExecutor(Executor)
+   */
+  public GatewayFactory(Executor executor) {
+    this.executor = executor;
+    shutdownExecutor = false;
+  }
+
+  /**
+   * Gets a gateway to a master container over TCP/IP. The connection to the
+   * master is opened on first use, and shared by all gateways to the same master.
+   *
+   * @param hostname hostname to connect to.
+   * @param port TCP port to connect to.
+   * @return gateway.
+   */
+  public Gateway getGateway(String hostname, int port) {
+    return newGateway(link(hostname+":"+port, () -> new SlaveContainer(new RealTimePlatform(), hostname, port)));
+  }
+
+  /**
+   * Gets a gateway to a master container over RS232. The RS232 port is opened
+   * on first use, and shared by all gateways using the same port.
+   *
+   * @param devname device name of the RS232 port.
+   * @param baud baud rate for the RS232 port.
+   * @param settings RS232 settings (null for defaults, or "N81" for no parity, 8 bits, 1 stop bit).
+   * @return gateway.
+   */
+  public Gateway getGateway(String devname, int baud, String settings) {
+    return newGateway(link(devname+"@"+baud, () -> new SlaveContainer(new RealTimePlatform(), devname, baud, settings)));
+  }
+
+  /**
+   * Gets the number of connections held by the factory.
+   *
+   * @return number of connections.
+   */
+  public synchronized int getConnectionCount() {
+    return links.size();
+  }
+
+  /**
+   * Closes all connections held by the factory. Gateways created by the factory
+   * may no longer be used after this method is called.
+   */
+  @Override
+  public synchronized void close() {
+    if (closed) return;
+    closed = true;
+    for (SlaveContainer container: links.values())
+      container.shutdown();
+    links.clear();
+    if (shutdownExecutor) ((ExecutorService)executor).shutdown();
+  }
+
+  ////////////// Private methods
+
+  private void checkOpen() {
+    if (closed) throw new FjageException("Gateway factory is closed");
+  }
+
+  // only the lookup is locked, since adding a gateway agent queries the master
+  private synchronized SlaveContainer link(String key, Supplier<SlaveContainer> connect) {
+    SlaveContainer container = links.get(key);
+    if (container == null) {
+      checkOpen();
+      container = connect.get();
+      if (executor != null) container.setExecutor(executor);
+      container.getPlatform().start();
+      links.put(key, container);
+    }
+    return container;
+  }
+
+  // gateways share a container, so names must be unique rather than hash based
+  private Gateway newGateway(SlaveContainer container) {
+    Gateway gw = new Gateway(container, "gateway-"+UUID7.generateFast());
+    gw.setConcurrent(true);
+    return gw;
+  }
+
+}
@@ -14,13 +14,13 @@ import java.util.Date;
 import java.util.Objects;
 import java.time.Instant;
 import java.time.Duration;
-import java.util.UUID;
 import com.google.gson.*;
 import com.google.gson.stream.JsonReader;
 import com.google.gson.stream.JsonWriter;
 import com.google.gson.stream.JsonToken;
 import org.arl.fjage.AgentID;
 import org.arl.fjage.Message;
+import org.arl.fjage.UUID7;
 import org.arl.fjage.param.Parameter;
 
 /**
@@ -84,7 +84,7 @@ public class JsonMessage {
   static JsonMessage createActionRequest(Action action) {
     Objects.requireNonNull(action, "action must not be null");
     final JsonMessage msg = new JsonMessage();
-    msg.id = UUID.randomUUID().toString();
+    msg.id = UUID7.generateFast().toString();
     msg.action = action;
     return msg;
   }
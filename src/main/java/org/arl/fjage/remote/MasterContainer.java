@@ -36,7 +36,6 @@ public class MasterContainer extends RemoteContainer implements ConnectionListen
   private static final long QUERY_TIMEOUT = 5000;
   private static final long REQUEST_TIMEOUT_MARGIN = 100;
   private static final int ALIVE_TIMEOUT = 15000;
-  private static final int ALIVE_POLL_INTERVAL = 100;
 
   private TcpServer tcpListener = null;
   private WebSocketServer websocketListener = null;
@@ -231,18 +230,60 @@ public class MasterContainer extends RemoteContainer implements ConnectionListen
     boolean sent = super.send(m, false);
     AgentID aid = m.getRecipient();
     if (aid == null) return false;
-    if (sent && !aid.isTopic()) return true;
+    if (!aid.isTopic()) {
+      if (sent) return true;
+      if (getAgent(aid) != null) return false;    // rejected by a local agent
+    }
     if (!relay) return false;
     JsonMessage rq = JsonMessage.createActionRequest(Action.SEND);
     rq.message = m;
     rq.relay = false;
     String json = rq.toJson();
+    trace(m, json);
     for (ConnectionHandler slave: slaves) {
       if (slave.wantsMessagesFor(aid)) slave.sendAsync(json);
     }
     return true;
   }
 
+  @Override
+  public int sendAll(Collection<? extends Message> msgs) {
+    return sendAll(msgs, true);
+  }
+
+  @Override
+  public int sendAll(Collection<? extends Message> msgs, boolean relay) {
+    List<Message> list = new ArrayList<>(msgs);
+    boolean[] sent = sendLocal(list);
+    Map<ConnectionHandler,List<String>> out = new HashMap<>();
+    int n = 0;
+    for (int i = 0; i < sent.length; i++) {
+      Message m = list.get(i);
+      AgentID aid = m.getRecipient();
+      if (aid == null) continue;
+      if (!aid.isTopic()) {
+        if (sent[i]) {
+          n++;
+          continue;
+        }
+        if (getAgent(aid) != null) continue;    // rejected by a local agent
+      }
+      if (!relay) continue;
+      JsonMessage rq = JsonMessage.createActionRequest(Action.SEND);
+      rq.message = m;
+      rq.relay = false;
+      String json = rq.toJson();
+      trace(m, json);
+      for (ConnectionHandler slave: slaves) {
+        if (slave.wantsMessagesFor(aid)) out.computeIfAbsent(slave, k -> new ArrayList<>()).add(json);
+      }
+      n++;
+    }
+    for (Map.Entry<ConnectionHandler,List<String>> e: out.entrySet())
+      e.getKey().sendAsync(e.getValue());
+    return n;
+  }
+
   @Override
   public AgentID[] getAgents() {
     AgentID[] aids = super.getAgents();
@@ -418,28 +459,30 @@ public class MasterContainer extends RemoteContainer implements ConnectionListen
     return agentsForService(service);
   }
 
+  private void startHandler(ConnectionHandler handler) {
+    // connections accepted during initialization may be started from here or initComplete()
+    synchronized (handler) {
+      if (handler.getState() == Thread.State.NEW) handler.start();
+    }
+  }
+
   @Override
   protected void initComplete() {
     for (ConnectionHandler slave: slaves)
-      if (!slave.isAlive()) slave.start();
+      startHandler(slave);
+  }
+
+  @Override
+  protected void awaitReady() {
     if (!slaves.isEmpty()) {
       log.fine("Waiting for slaves...");
-      boolean allAlive = false;
-      for (int i = 0; !allAlive && i < ALIVE_TIMEOUT/ALIVE_POLL_INTERVAL; i++) {
-        try {
-          Thread.sleep(ALIVE_POLL_INTERVAL);
-        } catch(InterruptedException e) {
-          Thread.currentThread().interrupt();
-        }
-        allAlive = true;
-        for (ConnectionHandler slave: slaves) {
-          if (!slave.isConnectionAlive()) {
-            allAlive = false;
-            break;
-          }
-        }
-      }
-      if (allAlive) log.fine("All slaves are alive");
+      long t0 = System.currentTimeMillis();
+      boolean allAlive = awaitReadiness(() -> {
+        for (ConnectionHandler slave: slaves)
+          if (!slave.isConnectionAlive()) return false;
+        return true;
+      }, ALIVE_TIMEOUT);
+      if (allAlive) log.fine("All slaves are alive ("+(System.currentTimeMillis()-t0)+" ms)");
       else log.warning("Some slaves timed out!");
     }
   }
@@ -476,6 +519,7 @@ public class MasterContainer extends RemoteContainer implements ConnectionListen
   public void connectionClosed(ConnectionHandler handler) {
     log.info("Connection "+handler.getName()+" closed");
     slaves.remove(handler);
+    readinessChanged();
   }
 
   public boolean openWebSocketServer( int port, String context) {
@@ -510,7 +554,7 @@ public class MasterContainer extends RemoteContainer implements ConnectionListen
     log.info("Incoming connection "+conn.toString());
     ConnectionHandler t = new ConnectionHandler(conn, MasterContainer.this, fwSupplier.get());
     slaves.add(t);
-    if (inited) t.start();
+    if (inited) startHandler(t);
   }
 
   /////////////// Private stuff
@@ -27,7 +27,8 @@ import java.util.logging.Logger;
  *
  * This adapter adds a "clazz" property to the JSON representation of the message,
  * representing the fully qualified message class name. This enables the message to
- * be unmarshalled into the appropriate message class at the destination.
+ * be unmarshalled into the appropriate message class at the destination. A message
+ * priority, if set, is carried in a "priority" property alongside the message data.
  */
 @SuppressWarnings({"unchecked", "rawtypes"})
 class MessageAdapterFactory implements TypeAdapterFactory {
@@ -84,7 +85,12 @@ class MessageAdapterFactory implements TypeAdapterFactory {
               }
               out.endObject();
             }
-            else delegate.write(out, value);
+            else {
+              if (value instanceof Message) ((Message)value).getMessageID();   // materialize lazy msgID
+              delegate.write(out, value);
+            }
+            Integer priority = ((Message)value).getPriority();
+            if (priority != null) out.name("priority").value(priority);
             out.endObject();
           }
         } finally {
@@ -100,6 +106,7 @@ class MessageAdapterFactory implements TypeAdapterFactory {
         }
         T rv = null;
         Class<?> cls = null;
+        Integer priority = null;
         in.beginObject();
         while (in.hasNext()) {
           String name = in.nextName();
@@ -149,9 +156,12 @@ class MessageAdapterFactory implements TypeAdapterFactory {
               TypeAdapter<?> delegate1 = gson.getDelegateAdapter(parent, TypeToken.get(cls));
               rv = (T)delegate1.read(in);
             }
+          } else if (name.equals("priority") && in.peek() == JsonToken.NUMBER) {
+            priority = in.nextInt();
           } else in.skipValue();
         }
         in.endObject();
+        if (priority != null && rv instanceof Message) ((Message)rv).setPriority(priority);
         return rv;
       }
 
@@ -10,8 +10,10 @@ for full license details.
 
 package org.arl.fjage.remote;
 
+import java.util.function.BooleanSupplier;
 import org.arl.fjage.AgentID;
 import org.arl.fjage.Container;
+import org.arl.fjage.Message;
 import org.arl.fjage.Platform;
 
 /**
@@ -22,6 +24,12 @@ import org.arl.fjage.Platform;
  */
 abstract class RemoteContainer extends Container {
 
+  //////// Private attributes
+
+  private static final long READY_RECHECK = 1000;     // safety net in case an event is missed
+
+  private final Object readiness = new Object();
+
   //////// Constructors (pass-through)
 
   RemoteContainer(Platform platform) {
@@ -41,6 +49,84 @@ abstract class RemoteContainer extends Container {
    */
   abstract void connectionClosed(ConnectionHandler handler);
 
+  /**
+   * Callback for a connection to a remote container becoming alive.
+   *
+   * @param handler indicates the connection that is alive.
+   */
+  void connectionAlive(ConnectionHandler handler) {
+    readinessChanged();
+  }
+
+  /**
+   * Records a message sent to a remote container with the message tracer, if
+   * one is set. The message size is the length of its UTF-8 encoded JSON.
+   *
+   * @param m message to record.
+   * @param json JSON encoding of the message, as sent on the wire.
+   */
+  void trace(Message m, String json) {
+    if (getMessageTracer() != null) trace(m, utf8Length(json));
+  }
+
+  /**
+   * Computes the length of a string encoded as UTF-8, without encoding it.
+   * Unpaired surrogates are counted as one byte, as they are replaced by '?'.
+   */
+  private static int utf8Length(String s) {
+    int n = s.length();
+    int len = n;
+    for (int i = 0; i < n; i++) {
+      char c = s.charAt(i);
+      if (c < 0x80) continue;
+      if (c < 0x800) len++;
+      else if (Character.isHighSurrogate(c) && i+1 < n && Character.isLowSurrogate(s.charAt(i+1))) {
+        len += 2;   // 4 bytes for the pair
+        i++;
+      } else if (!Character.isSurrogate(c)) len += 2;
+    }
+    return len;
+  }
+
+  /**
+   * Wakes up threads waiting in {@link #awaitReadiness(BooleanSupplier, long)}
+   * to re-check their readiness condition.
+   */
+  void readinessChanged() {
+    synchronized (readiness) {
+      readiness.notifyAll();
+    }
+  }
+
+  /**
+   * Waits until a readiness condition is met. The condition is re-checked
+   * whenever {@link #readinessChanged()} is called (e.g. on initialization,
+   * connection alive or connection closed events), rather than polled.
+   *
+   * @param ready readiness condition.
+   * @param timeout timeout in milliseconds, or -1 to wait indefinitely.
+   * @return true if the condition is met, false on timeout or interruption.
+   */
+  boolean awaitReadiness(BooleanSupplier ready, long timeout) {
+    long deadline = System.currentTimeMillis() + timeout;
+    synchronized (readiness) {
+      while (!ready.getAsBoolean()) {
+        long t = READY_RECHECK;
+        if (timeout >= 0) {
+          t = Math.min(t, deadline - System.currentTimeMillis());
+          if (t <= 0) return false;
+        }
+        try {
+          readiness.wait(t);
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+          return ready.getAsBoolean();
+        }
+      }
+    }
+    return true;
+  }
+
   /**
    * Lists all agents, with subtly different behaviors on master and slave containers.
    * On the master container, this method should be the same as getAgents(). On the
@@ -39,6 +39,7 @@ public class SlaveContainer extends RemoteContainer {
   private volatile boolean quit = false;
   private volatile Thread connectionManager;
   private String watchListCache = null;
+  private long watchListVersion = -1;
 
   ////////////// Constructors
 
@@ -166,20 +167,62 @@ public class SlaveContainer extends RemoteContainer {
       rq.message = m;
       rq.relay = true;
       String json = rq.toJson();
+      trace(m, json);
       localMaster.send(json);
     } else {
       if (super.send(m, false)) return true;
-      if (!relay) return false;
+      if (!relay || getAgent(aid) != null) return false;   // not relayed if rejected by a local agent
       JsonMessage rq = JsonMessage.createActionRequest(Action.SEND);
       rq.id = m.getMessageID();
       rq.message = m;
       rq.relay = true;
       String json = rq.toJson();
+      trace(m, json);
       localMaster.send(json);
     }
     return true;
   }
 
+  @Override
+  public int sendAll(Collection<? extends Message> msgs) {
+    return sendAll(msgs, true);
+  }
+
+  @Override
+  public int sendAll(Collection<? extends Message> msgs, boolean relay) {
+    if (!running) return 0;
+    if (master == null) return 0;
+    ConnectionHandler localMaster = master;
+    List<Message> local = new ArrayList<>(msgs.size());
+    List<Message> remote = new ArrayList<>();
+    for (Message m: msgs) {
+      AgentID aid = m.getRecipient();
+      if (aid == null) continue;
+      if (aid.isTopic() && relay) remote.add(m);
+      else local.add(m);
+    }
+    int n = 0;
+    boolean[] sent = sendLocal(local);
+    for (int i = 0; i < sent.length; i++) {
+      AgentID aid = local.get(i).getRecipient();
+      if (sent[i]) n++;
+      else if (relay && !aid.isTopic() && getAgent(aid) == null) remote.add(local.get(i));
+    }
+    if (remote.isEmpty()) return n;
+    List<String> out = new ArrayList<>(remote.size());
+    for (Message m: remote) {
+      JsonMessage rq = JsonMessage.createActionRequest(Action.SEND);
+      rq.id = m.getMessageID();
+      rq.message = m;
+      rq.relay = true;
+      String json = rq.toJson();
+      trace(m, json);
+      out.add(json);
+    }
+    localMaster.send(out);
+    return n + remote.size();
+  }
+
   @Override
   public AgentID[] getAgents() {
     if (master == null) return null;
@@ -247,20 +290,22 @@ public class SlaveContainer extends RemoteContainer {
 
   @Override
   protected void initComplete() {
+    readinessChanged();     // let the connection manager start talking to the master
+  }
+
+  @Override
+  protected void awaitReady() {
     log.fine("Waiting for master...");
-    while (!quit && (master == null || !master.isConnectionAlive())) {
-      try {
-        Thread.sleep(100);
-      } catch(InterruptedException e) {
-        Thread.currentThread().interrupt();
-      }
-    }
-    log.fine("Connection to master OK");
+    long t0 = System.currentTimeMillis();
+    if (awaitReadiness(() -> quit || (master != null && master.isConnectionAlive()), -1))
+      log.fine("Connection to master OK ("+(System.currentTimeMillis()-t0)+" ms)");
+    else log.warning("Interrupted while waiting for master");
   }
 
   @Override
   public void shutdown() {
     quit = true;
+    readinessChanged();
     if (master != null) master.close();
     Thread t = connectionManager;
     if (t != null) {
@@ -349,7 +394,8 @@ public class SlaveContainer extends RemoteContainer {
             try {
               tryConnecting();
               log.info("Connected to "+ displayhost(hostname, port, baud));
-              while (!quit && !inited) Thread.sleep(100);
+              awaitReadiness(() -> quit || inited, -1);
+              if (Thread.interrupted()) throw new InterruptedException();
               master.start();
               master.join();
               log.info("Connection to "+  displayhost(hostname, port, baud) + " lost");
@@ -376,11 +422,14 @@ public class SlaveContainer extends RemoteContainer {
 
   private synchronized void updateWatchList() {
     if (master == null) return;
+    long version = getRoutingVersion();
+    if (watchListCache != null && version == watchListVersion) return;
+    watchListVersion = version;
     List<AgentID> watchList = new ArrayList<>();
     Collections.addAll(watchList, getLocalAgents());
-    for (AgentID aid: topics.keySet())
-      if (!topics.get(aid).isEmpty())
-        watchList.add(aid);
+    for (Map.Entry<AgentID,Set<Agent>> e: topics.entrySet())
+      if (!e.getValue().isEmpty())
+        watchList.add(e.getKey());
     JsonMessage rq = JsonMessage.createActionRequest(Action.WANTS_MESSAGES_FOR);
     rq.agentIDs = watchList.toArray(new AgentID[watchList.size()]);
     String json = rq.toJson();
@@ -10,14 +10,26 @@ for full license details.
 
 package org.arl.fjage.test;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.PrintStream;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
 import java.util.logging.Logger;
 import org.arl.fjage.*;
 import org.arl.fjage.param.*;
 import org.arl.fjage.persistence.Store;
 import org.arl.fjage.remote.Gateway;
+import org.arl.fjage.remote.GatewayFactory;
+import org.arl.fjage.remote.JsonMessage;
 import org.arl.fjage.remote.MasterContainer;
 import org.arl.fjage.remote.SlaveContainer;
 import org.arl.fjage.remote.Tunnel;
@@ -79,6 +91,1079 @@ public class BasicTests {
     assertEquals(client.nuisance, server.nuisance);
   }
 
+  @Test
+  public void testExecutorRT() {
+    log.info("testExecutorRT");
+    final int nAgents = 100;
+    Platform platform = new RealTimePlatform();
+    Container container = new Container(platform);
+    ForkJoinPool pool = new ForkJoinPool(2);
+    container.setExecutor(pool);
+    ClientAgent client = new ClientAgent();
+    ServerAgent server = new ServerAgent();
+    container.add("C", client);
+    container.add("S", server);
+    final AtomicInteger replies = new AtomicInteger(0);
+    for (int i = 0; i < nAgents; i++) {
+      container.add("R"+i, new Agent() {
+        @Override
+        public void init() {
+          add(new OneShotBehavior() {
+            @Override
+            public void action() {
+              Message rsp = request(new RequestMessage(agentForService("server")), DELAY);
+              if (rsp instanceof ResponseMessage) replies.incrementAndGet();
+            }
+          });
+        }
+      });
+    }
+    platform.start();
+    while (!client.done)
+      platform.delay(DELAY);
+    platform.shutdown();
+    assertEquals(0, client.bad);
+    assertEquals(client.good, client.requests);
+    assertEquals(client.requests+nAgents, server.requests);
+    assertEquals(client.nuisance, server.nuisance);
+    assertEquals(nAgents, replies.get());
+  }
+
+  @Test
+  public void testExecutorSim() {
+    log.info("testExecutorSim");
+    Platform platform = new DiscreteEventSimulator();
+    Container container = new Container(platform);
+    ForkJoinPool pool = new ForkJoinPool(2);
+    container.setExecutor(pool);
+    ClientAgent client = new ClientAgent();
+    ServerAgent server = new ServerAgent();
+    container.add("C", client);
+    container.add("S", server);
+    platform.start();
+    while (!client.done)
+      platform.delay(DELAY);
+    platform.shutdown();
+    assertEquals(0, client.bad);
+    assertEquals(client.good, client.requests);
+    assertEquals(client.requests, server.requests);
+    assertEquals(client.nuisance, server.nuisance);
+  }
+
+  @Test
+  public void testParallelSim() {
+    log.info("testParallelSim");
+    DiscreteEventSimulator platform = new DiscreteEventSimulator();
+    platform.setParallelism(2);
+    Container container = new Container(platform);
+    ClientAgent client = new ClientAgent();
+    ServerAgent server = new ServerAgent();
+    container.add("C", client);
+    container.add("S", server);
+    platform.start();
+    while (!client.done)
+      platform.delay(DELAY);
+    platform.shutdown();
+    assertEquals(0, client.bad);
+    assertEquals(client.good, client.requests);
+    assertEquals(client.requests, server.requests);
+    assertEquals(client.nuisance, server.nuisance);
+    long[] run1 = runGossip(42);
+    long[] run2 = runGossip(42);
+    assertArrayEquals(run1, run2);
+    assertFalse(Arrays.equals(run1, runGossip(7)));
+  }
+
+  @Test
+  public void testSweep() throws InterruptedException {
+    log.info("testSweep");
+    List<Integer> params = new ArrayList<>();
+    for (int i = 0; i < 16; i++)
+      params.add(10+i);
+    SweepRunner.Simulation<Integer,Long> sim = (platform, n) -> {
+      platform.setParallelism(2);
+      Container container = new Container(platform);
+      GossipAgent[] agents = new GossipAgent[n];
+      for (int i = 0; i < n; i++) {
+        agents[i] = new GossipAgent(n);
+        container.add("g"+i, agents[i]);
+      }
+      return () -> {
+        long h = 0;
+        for (GossipAgent a: agents)
+          h = 31*h + a.hash;
+        return h;
+      };
+    };
+    SweepRunner runner = new SweepRunner(4);
+    runner.setSeed(1);
+    List<Long> results1 = runner.run(params, sim);
+    List<Long> results2 = runner.run(params, sim);
+    assertEquals(params.size(), results1.size());
+    assertFalse(results1.contains(null));
+    assertEquals(results1, results2);
+    assertEquals(params.size(), new HashSet<>(results1).size());
+    runner = new SweepRunner(1);
+    runner.setSeed(1);
+    runner.setTimeLimit(500);
+    List<Long> results3 = runner.run(params, sim);
+    assertFalse(results3.contains(null));
+    assertFalse(results1.equals(results3));
+  }
+
+  @Test
+  public void testSweepInterrupt() throws InterruptedException {
+    log.info("testSweepInterrupt");
+    final List<Platform> platforms = Collections.synchronizedList(new ArrayList<>());
+    SweepRunner.Simulation<Integer,Long> sim = (platform, n) -> {
+      platforms.add(platform);
+      Container container = new Container(platform);
+      container.add("t", new Agent() {
+        @Override
+        protected void init() {
+          add(new TickerBehavior(1000) {
+            @Override
+            public void onTick() { }
+          });
+        }
+      });
+      return null;
+    };
+    final SweepRunner runner = new SweepRunner(2);
+    Thread t = new Thread(() -> {
+      try {
+        runner.run(Arrays.asList(1, 2), sim);
+      } catch (InterruptedException ex) {
+        // expected
+      }
+    });
+    t.start();
+    while (platforms.size() < 2 || !platforms.get(0).isRunning() || !platforms.get(1).isRunning())
+      Thread.sleep(10);
+    t.interrupt();
+    t.join(DELAY);
+    assertFalse(t.isAlive());
+    for (Platform p: platforms) {
+      for (int i = 0; i < 100 && p.isRunning(); i++)
+        Thread.sleep(10);
+      assertFalse(p.isRunning());
+    }
+  }
+
+  private long[] runGossip(long seed) {
+    AgentLocalRandom.setRootSeed(seed);
+    DiscreteEventSimulator platform = new DiscreteEventSimulator();
+    platform.setParallelism(4);
+    Container container = new Container(platform);
+    GossipAgent[] agents = new GossipAgent[20];
+    for (int i = 0; i < agents.length; i++) {
+      agents[i] = new GossipAgent(agents.length);
+      container.add("g"+i, agents[i]);
+    }
+    platform.start();
+    while (platform.isRunning()) {
+      try {
+        Thread.sleep(10);
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    long[] hash = new long[agents.length];
+    for (int i = 0; i < agents.length; i++)
+      hash[i] = agents[i].hash;
+    return hash;
+  }
+
+  @Test
+  public void testVirtualThreads() {
+    log.info("testVirtualThreads");
+    final int nAgents = 1000;
+    Platform platform = new RealTimePlatform();
+    Container container = new Container(platform);
+    container.setVirtualThreads(true);
+    ClientAgent client = new ClientAgent();
+    ServerAgent server = new ServerAgent();
+    server.setQueueSize(2*nAgents);
+    container.add("C", client);
+    container.add("S", server);
+    final AtomicInteger replies = new AtomicInteger(0);
+    for (int i = 0; i < nAgents; i++) {
+      container.add("R"+i, new Agent() {
+        @Override
+        public void init() {
+          add(new OneShotBehavior() {
+            @Override
+            public void action() {
+              Message rsp = request(new RequestMessage(agentForService("server")), 10*DELAY);
+              if (rsp instanceof ResponseMessage) replies.incrementAndGet();
+            }
+          });
+        }
+      });
+    }
+    platform.start();
+    while (!client.done)
+      platform.delay(DELAY);
+    platform.delay(DELAY);
+    platform.shutdown();
+    assertEquals(0, client.bad);
+    assertEquals(client.good, client.requests);
+    assertEquals(client.requests+nAgents, server.requests);
+    assertEquals(nAgents, replies.get());
+  }
+
+  @Test
+  public void testMpscQueue() throws InterruptedException {
+    log.info("testMpscQueue");
+    final int nThreads = 4;
+    final int nMsgs = 10000;
+    final AbstractMessageQueue q = new MpscMessageQueue();
+    List<MessageFilter> exclusions = new ArrayList<>();
+    exclusions.add(m -> m instanceof NuisanceMessage);
+    q.add(new NuisanceMessage(null));
+    q.commit(exclusions);
+    assertNull(q.get());
+    Thread[] producers = new Thread[nThreads];
+    for (int i = 0; i < nThreads; i++) {
+      producers[i] = new Thread(() -> {
+        for (int j = 0; j < nMsgs; j++)
+          q.add(new RequestMessage(null));
+      });
+      producers[i].start();
+    }
+    int n = 0;
+    long deadline = System.currentTimeMillis() + 10*DELAY;
+    while (n < nThreads*nMsgs && System.currentTimeMillis() < deadline) {
+      q.commit(exclusions);
+      while (q.get() != null)
+        n++;
+    }
+    for (Thread t: producers)
+      t.join();
+    assertEquals(nThreads*nMsgs, n);
+    q.commit(Collections.emptyList());
+    assertSame(NuisanceMessage.class, q.get().getClass());
+    assertNull(q.get());
+    q.setSize(10);
+    for (int i = 0; i < 20; i++)
+      q.add(new RequestMessage(null));
+    q.commit(exclusions);
+    assertEquals(10, q.length());
+    q.clear();
+    for (int i = 0; i < 100; i++) {
+      RequestMessage req = new RequestMessage(null);
+      req.x = i;
+      q.add(req);
+    }
+    assertEquals(100, q.getDropped());
+    q.commit(exclusions);
+    assertEquals(10, q.length());
+    assertEquals(90, ((RequestMessage)q.get()).x);
+  }
+
+  @Test
+  public void testOverflowPolicy() throws InterruptedException {
+    log.info("testOverflowPolicy");
+    for (final AbstractMessageQueue q: new AbstractMessageQueue[] { new MessageQueue(4), new MpscMessageQueue(4) }) {
+      List<MessageFilter> exclusions = new ArrayList<>();
+      q.setOverflowPolicy(OverflowPolicy.DROP_NEWEST, 0);
+      for (int i = 0; i < 6; i++) {
+        RequestMessage req = new RequestMessage(null);
+        req.x = i;
+        assertTrue(q.add(req));
+      }
+      q.commit(exclusions);
+      assertEquals(4, q.length());
+      assertEquals(2, q.getDropped());
+      assertEquals(0, ((RequestMessage)q.get()).x);
+      assertEquals(1, q.getCredit());
+      q.setOverflowPolicy(OverflowPolicy.REJECT, 0);
+      assertTrue(q.add(new RequestMessage(null)));
+      assertFalse(q.add(new RequestMessage(null)));
+      assertEquals(1, q.getRejected());
+      assertEquals(0, q.getCredit());
+      q.setOverflowPolicy(OverflowPolicy.BLOCK, DELAY/10);
+      long t0 = System.currentTimeMillis();
+      assertFalse(q.add(new RequestMessage(null), true));
+      assertTrue(System.currentTimeMillis() - t0 >= DELAY/10 - 10);
+      q.setOverflowPolicy(OverflowPolicy.BLOCK, 10*DELAY);
+      Thread consumer = new Thread(() -> {
+        try {
+          Thread.sleep(DELAY/10);
+        } catch (InterruptedException ex) {
+          // do nothing
+        }
+        q.commit(Collections.emptyList());
+        q.get();
+      });
+      consumer.start();
+      assertTrue(q.add(new RequestMessage(null), true));
+      consumer.join();
+      assertEquals(2, q.getRejected());
+      q.commit(exclusions);
+      assertEquals(4, q.length());
+    }
+  }
+
+  @Test
+  public void testSendBackpressure() {
+    log.info("testSendBackpressure");
+    Platform platform = new RealTimePlatform();
+    Container container = new Container(platform);
+    Agent server = new Agent();
+    server.setQueueSize(4);
+    server.setQueueOverflowPolicy(OverflowPolicy.REJECT);
+    Agent client = new Agent();
+    container.add("server", server);
+    container.add("client", client);
+    platform.start();
+    assertEquals(4, client.getCredit(server.getAgentID()));
+    assertEquals(-1, client.getCredit(new AgentID("unknown")));
+    int n = 0;
+    for (int i = 0; i < 10; i++)
+      if (client.send(new RequestMessage(server.getAgentID()))) n++;
+    assertEquals(4, n);
+    assertEquals(0, client.getCredit(server.getAgentID()));
+    server.setQueueOverflowPolicy(OverflowPolicy.BLOCK, DELAY);
+    long t0 = System.currentTimeMillis();
+    assertFalse(client.trySend(new RequestMessage(server.getAgentID())));
+    assertTrue(System.currentTimeMillis() - t0 < DELAY/2);
+    assertEquals(7, server.getMetrics().getMessagesRejected());
+    assertEquals(4, server.getMetrics().getMessagesReceived());
+    assertEquals(4, client.getMetrics().getMessagesSent());
+    platform.shutdown();
+  }
+
+  @Test
+  public void testExecutorSendBackpressure() throws Exception {
+    log.info("testExecutorSendBackpressure");
+    Platform platform = new RealTimePlatform();
+    final Container container = new Container(platform);
+    ForkJoinPool pool = new ForkJoinPool(1);
+    container.setExecutor(pool);
+    final Agent server = new Agent();
+    server.setQueueSize(4);
+    server.setQueueOverflowPolicy(OverflowPolicy.BLOCK, Agent.BLOCKING);
+    final AtomicInteger sent = new AtomicInteger(-1);
+    container.add("server", server);
+    container.add("client", new Agent() {
+      @Override
+      public void init() {
+        add(new OneShotBehavior() {
+          @Override
+          public void action() {
+            int n = 0;
+            for (int i = 0; i < 10; i++)
+              if (send(new RequestMessage(server.getAgentID()))) n++;
+            sent.set(n);
+          }
+        });
+      }
+    });
+    platform.start();
+    for (int i = 0; i < 10 && sent.get() < 0; i++)
+      platform.delay(DELAY/10);
+    assertEquals(4, sent.get());
+    // senders on a shared pool must not park the pool's thread
+    ForkJoinPool pool2 = new ForkJoinPool(1);
+    CompletableFuture<Boolean> f = CompletableFuture.supplyAsync(() -> container.send(new RequestMessage(server.getAgentID())), pool2);
+    assertFalse(f.get(DELAY, TimeUnit.MILLISECONDS));
+    assertEquals(7, server.getMetrics().getMessagesRejected());
+    platform.shutdown();
+    pool.shutdown();
+    pool2.shutdownNow();
+  }
+
+  @Test
+  public void testRemoteSendBackpressure() throws IOException {
+    log.info("testRemoteSendBackpressure");
+    Platform platform = new RealTimePlatform();
+    Platform platform2 = new RealTimePlatform();
+    Agent[] servers = new Agent[] { new Agent(), new Agent() };
+    Agent[] clients = new Agent[] { new Agent(), new Agent() };
+    for (Agent a: servers) {
+      a.setQueueSize(4);
+      a.setQueueOverflowPolicy(OverflowPolicy.REJECT);
+    }
+    MasterContainer master = new MasterContainer(platform);
+    master.add("server0", servers[0]);
+    master.add("client0", clients[0]);
+    platform.start();
+    SlaveContainer slave = new SlaveContainer(platform2, "localhost", master.getPort());
+    slave.add("server1", servers[1]);
+    slave.add("client1", clients[1]);
+    platform2.start();
+    for (int i = 0; i < 2; i++) {
+      AgentID aid = servers[i].getAgentID();
+      int n = 0;
+      for (int j = 0; j < 10; j++)
+        if (clients[i].send(new RequestMessage(aid))) n++;
+      assertEquals(4, n);
+      List<Message> msgs = new ArrayList<>();
+      for (int j = 0; j < 5; j++)
+        msgs.add(new RequestMessage(aid));
+      assertEquals(0, clients[i].sendAll(msgs));
+      servers[i].setQueueOverflowPolicy(OverflowPolicy.BLOCK, DELAY);
+      long t0 = System.currentTimeMillis();
+      assertFalse(clients[i].trySend(new RequestMessage(aid)));
+      assertTrue(System.currentTimeMillis() - t0 < DELAY/2);
+      assertEquals(12, servers[i].getMetrics().getMessagesRejected());
+      assertEquals(4, servers[i].getMetrics().getMessagesReceived());
+    }
+    platform2.shutdown();
+    platform.shutdown();
+  }
+
+  @Test
+  public void testPriorityLanes() {
+    log.info("testPriorityLanes");
+    for (AbstractMessageQueue q: new AbstractMessageQueue[] { new MessageQueue(), new MpscMessageQueue() }) {
+      q.setLanes(2, LaneSelector.byPerformative(Performative.REQUEST), 4);
+      for (int i = 0; i < 20; i++)
+        q.add(new Message(Performative.INFORM));
+      for (int i = 0; i < 10; i++)
+        q.add(new Message(Performative.REQUEST));
+      q.commit(Collections.emptyList());
+      StringBuilder sb = new StringBuilder();
+      Message m;
+      while ((m = q.get()) != null)
+        sb.append(m.getPerformative() == Performative.REQUEST ? 'R' : 'i');
+      assertEquals("RRRRiRRRRiRRiiiiiiiiiiiiiiiiii", sb.toString());
+      Message p = new Message(Performative.INFORM);
+      p.setPriority(0);
+      q.add(new Message(Performative.INFORM));
+      q.add(p);
+      q.commit(Collections.emptyList());
+      assertSame(p, q.get(new ClassMessageFilter(Message.class)));
+      assertNotNull(q.get());
+      q.setSize(3);
+      for (int i = 0; i < 5; i++)
+        q.add(new Message(Performative.INFORM));
+      q.add(new Message(Performative.REQUEST));
+      q.commit(Collections.emptyList());
+      assertEquals(3, q.length());
+      assertEquals(Performative.REQUEST, q.get().getPerformative());
+    }
+  }
+
+  @Test
+  public void testPrioritySerialization() {
+    log.info("testPrioritySerialization");
+    JsonMessage j = new JsonMessage();
+    j.message = new Message(Performative.INFORM);
+    assertFalse(j.toJson().contains("priority"));
+    LevelMessage m = new LevelMessage();
+    m.priority = 7;
+    m.setPriority(1);
+    j.message = m;
+    LevelMessage m1 = (LevelMessage)JsonMessage.fromJson(j.toJson()).message;
+    assertEquals(7, m1.priority);
+    assertEquals(Integer.valueOf(1), m1.getPriority());
+    Platform platform = new RealTimePlatform();
+    Container container = new Container(platform);
+    for (String cloner: new String[] { Container.SERIAL_CLONER, Container.COPY_CLONER }) {
+      container.setCloner(cloner);
+      LevelMessage m2 = container.clone(m);
+      assertNotSame(m, m2);
+      assertEquals(7, m2.priority);
+      assertEquals(Integer.valueOf(1), m2.getPriority());
+    }
+    platform.shutdown();
+  }
+
+  @Test
+  public void testIndexedQueue() {
+    log.info("testIndexedQueue");
+    for (AbstractMessageQueue q: new AbstractMessageQueue[] { new MessageQueue(), new MpscMessageQueue() }) {
+      List<RequestMessage> reqs = new ArrayList<>();
+      for (int i = 0; i < 1000; i++) {
+        RequestMessage req = new RequestMessage(null);
+        req.x = i;
+        reqs.add(req);
+        q.add(i%3 == 0 ? new NuisanceMessage(null) : new Message(Performative.INFORM));
+      }
+      for (int i = reqs.size()-1; i >= 0; i--) {
+        ResponseMessage rsp = new ResponseMessage(reqs.get(i));
+        rsp.x = i;
+        q.add(rsp);
+      }
+      List<MessageFilter> exclusions = new ArrayList<>();
+      exclusions.add(new ReplyMessageFilter(reqs.get(7)));
+      q.commit(exclusions);
+      assertEquals(1999, q.length());
+      assertNull(q.get(new ReplyMessageFilter(reqs.get(7))));
+      for (int i = 0; i < reqs.size(); i += 2) {
+        Message rsp = q.get(new ReplyMessageFilter(reqs.get(i)));
+        assertNotNull(rsp);
+        assertEquals(i, ((ResponseMessage)rsp).x);
+      }
+      assertNull(q.get(new ReplyMessageFilter(reqs.get(0))));
+      q.commit(Collections.emptyList());
+      assertEquals(1500, q.length());
+      Message m = q.get(new ClassMessageFilter(NuisanceMessage.class));
+      assertSame(NuisanceMessage.class, m.getClass());
+      m = q.get(new ClassMessageFilter(ResponseMessage.class));
+      assertEquals(999, ((ResponseMessage)m).x);
+      m = q.get(new ClassMessageFilter(Message.class));
+      assertSame(Message.class, m.getClass());
+      m = q.get(new ClassMessageFilter(Message.class));
+      assertSame(Message.class, m.getClass());
+      m = q.get(new ClassMessageFilter(Message.class));
+      assertSame(NuisanceMessage.class, m.getClass());
+      assertNotNull(q.get(new ReplyMessageFilter(reqs.get(7))));
+      int n = 0;
+      while (q.get(m1 -> m1 instanceof ResponseMessage) != null)
+        n++;
+      assertEquals(498, n);
+      assertNull(q.get(new ClassMessageFilter(ResponseMessage.class)));
+    }
+  }
+
+  @Test
+  public void testMpscQueueAgent() {
+    log.info("testMpscQueueAgent");
+    Platform platform = new RealTimePlatform();
+    Container container = new Container(platform);
+    ClientAgent client = new ClientAgent();
+    ServerAgent server = new ServerAgent();
+    client.setMessageQueue(new MpscMessageQueue(256));
+    server.setMessageQueue(new MpscMessageQueue(256));
+    container.add("C", client);
+    container.add("S", server);
+    platform.start();
+    while (!client.done)
+      platform.delay(DELAY);
+    platform.shutdown();
+    assertEquals(0, client.bad);
+    assertEquals(client.good, client.requests);
+    assertEquals(client.requests, server.requests);
+    assertEquals(client.nuisance, server.nuisance);
+  }
+
+  @Test
+  public void testTargetedWakeup() {
+    log.info("testTargetedWakeup");
+    Platform platform = new RealTimePlatform();
+    Container container = new Container(platform);
+    ClientAgent client = new ClientAgent();
+    ServerAgent server = new ServerAgent();
+    client.setTargetedWakeup(true);
+    server.setTargetedWakeup(true);
+    container.add("C", client);
+    container.add("S", server);
+    final int n = 20;
+    final AtomicInteger[] received = new AtomicInteger[n];
+    final AtomicInteger idleChecks = new AtomicInteger();
+    final AtomicInteger ticks = new AtomicInteger();
+    for (int i = 0; i < n; i++)
+      received[i] = new AtomicInteger();
+    Agent agent = new Agent() {
+      @Override
+      protected void init() {
+        setTargetedWakeup(true);
+        for (int i = 0; i < n; i++) {
+          final String key = "k"+i;
+          final AtomicInteger count = received[i];
+          add(new MessageBehavior(m -> key.equals(m.getInReplyTo()), m -> count.incrementAndGet()));
+        }
+        add(new MessageBehavior(m -> idleChecks.incrementAndGet() < 0));
+        add(new TickerBehavior(100, ticks::incrementAndGet));
+      }
+    };
+    Agent sender = new Agent();
+    container.add("T", agent);
+    container.add("U", sender);
+    platform.start();
+    for (int j = 0; j < 2; j++) {
+      for (int i = 0; i < n; i++) {
+        Message msg = new Message(agent.getAgentID());
+        msg.setInReplyTo("k"+i);
+        sender.send(msg);
+      }
+    }
+    while (!client.done)
+      platform.delay(DELAY);
+    platform.shutdown();
+    for (int i = 0; i < n; i++)
+      assertEquals(2, received[i].get());
+    assertTrue("idle behavior checked "+idleChecks.get()+" times", idleChecks.get() <= 2*n);
+    assertTrue(ticks.get() > 0);
+    assertEquals(0, client.bad);
+    assertEquals(client.good, client.requests);
+    assertEquals(client.requests, server.requests);
+    assertEquals(client.nuisance, server.nuisance);
+  }
+
+  @Test
+  public void testTargetedWakeupRequestSender() {
+    log.info("testTargetedWakeupRequestSender");
+    Platform platform = new RealTimePlatform();
+    Container container = new Container(platform);
+    ServerAgent server = new ServerAgent();
+    final int n = 10;
+    final AtomicInteger informed = new AtomicInteger();
+    final AtomicInteger good = new AtomicInteger();
+    final long[] elapsed = new long[1];
+    Agent client = new Agent() {
+      @Override
+      protected void init() {
+        setTargetedWakeup(true);
+        add(new OneShotBehavior(() -> {
+          long t0 = System.currentTimeMillis();
+          for (int i = 0; i < n; i++) {
+            RequestMessage req = new RequestMessage(server.getAgentID());
+            req.x = i;
+            try {
+              Message rsp = prepareRequest(req)
+                  .onInform(m -> informed.incrementAndGet())
+                  .onTimeout(5000, () -> {})
+                  .send()
+                  .get();
+              if (rsp instanceof ResponseMessage && ((ResponseMessage)rsp).y == 2*i+1) good.incrementAndGet();
+            } catch (Exception ex) {
+              log.warning("request failed: "+ex);
+            }
+          }
+          elapsed[0] = System.currentTimeMillis()-t0;
+        }));
+      }
+    };
+    container.add("S", server);
+    container.add("C", client);
+    platform.start();
+    platform.delay(2000);
+    platform.shutdown();
+    assertEquals(n, good.get());
+    assertEquals(n, informed.get());
+    assertTrue("requests took "+elapsed[0]+" ms", elapsed[0] < 1000);
+  }
+
+  @Test
+  public void testRequestAsync() throws Exception {
+    log.info("testRequestAsync");
+    Platform platform = new RealTimePlatform();
+    Container container = new Container(platform);
+    ServerAgent server = new ServerAgent();
+    Agent client = new Agent();
+    container.add("S", server);
+    container.add("C", client);
+    platform.start();
+    final int n = 100;
+    List<CompletableFuture<Integer>> futures = new ArrayList<>();
+    for (int i = 0; i < n; i++) {
+      RequestMessage req = new RequestMessage(server.getAgentID());
+      req.x = i;
+      futures.add(client.requestAsync(req, 5000).thenApply(rsp -> ((ResponseMessage)rsp).y));
+    }
+    CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(10, TimeUnit.SECONDS);
+    for (int i = 0; i < n; i++)
+      assertEquals(2*i+1, futures.get(i).get().intValue());
+    assertNull(client.requestAsync(new RequestMessage(new AgentID("X")), 5000).get(1, TimeUnit.SECONDS));
+    long t0 = System.currentTimeMillis();
+    assertNull(client.requestAsync(new RequestMessage(client.getAgentID()), 200).get(5, TimeUnit.SECONDS));
+    assertTrue(System.currentTimeMillis()-t0 >= 200);
+    platform.shutdown();
+    assertEquals(n, server.requests);
+    assertEquals(n+1, client.getMetrics().getMessagesReceived());
+    assertEquals(n, client.getMetrics().getRequests());
+    assertEquals(1, client.getMetrics().getRequestTimeouts());
+  }
+
+  @Test
+  public void testScheduleCancel() {
+    log.info("testScheduleCancel");
+    Platform platform = new RealTimePlatform();
+    final int n = 1000;
+    final AtomicInteger fired = new AtomicInteger();
+    final AtomicInteger early = new AtomicInteger();
+    final AtomicInteger bad = new AtomicInteger();
+    Random rnd = new Random(1);
+    List<ScheduledTask> tasks = new ArrayList<>();
+    for (int i = 0; i < n; i++) {
+      final boolean keep = i % 2 == 0;
+      final long dt = (keep ? 0 : 200) + rnd.nextInt(1300);
+      final long t0 = System.nanoTime();
+      tasks.add(platform.schedule(new TimerTask() {
+        @Override
+        public void run() {
+          if (!keep) bad.incrementAndGet();
+          if (System.nanoTime() - t0 < dt * 1000000) early.incrementAndGet();
+          fired.incrementAndGet();
+        }
+      }, dt));
+    }
+    for (int i = 1; i < n; i += 2)
+      assertTrue(tasks.get(i).cancel());
+    platform.delay(2000);
+    assertEquals(n/2, fired.get());
+    assertEquals(0, bad.get());
+    assertEquals(0, early.get());
+    for (int i = 0; i < n; i++) {
+      assertEquals(i % 2 == 1, tasks.get(i).isCancelled());
+      assertFalse(tasks.get(i).cancel());
+    }
+  }
+
+  @Test
+  public void testMessageID() throws InterruptedException {
+    log.info("testMessageID");
+    final int n = 10000;
+    final Set<String> ids = Collections.synchronizedSet(new HashSet<>());
+    final AtomicInteger unordered = new AtomicInteger();
+    Thread[] threads = new Thread[4];
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] = new Thread(() -> {
+        String last = "";
+        for (int j = 0; j < n; j++) {
+          String id = new Message().getMessageID();
+          if (id.compareTo(last) <= 0) unordered.incrementAndGet();
+          ids.add(id);
+          last = id;
+        }
+      });
+      threads[i].start();
+    }
+    for (Thread t: threads)
+      t.join();
+    assertEquals(threads.length*n, ids.size());
+    assertEquals(0, unordered.get());
+    Message req = new Message();
+    assertEquals(req.getMessageID(), new Message(req).getInReplyTo());
+    Container container = new Container(new DiscreteEventSimulator());
+    container.setCloner(Container.SERIAL_CLONER);
+    RequestMessage s1 = new RequestMessage(null);
+    RequestMessage s2 = container.clone(s1);
+    assertEquals(s1.getMessageID(), s2.getMessageID());
+    final AtomicInteger count = new AtomicInteger();
+    Message.setMessageIDGenerator(() -> "id-"+count.incrementAndGet());
+    try {
+      assertEquals("id-1", new Message().getMessageID());
+    } finally {
+      Message.setMessageIDGenerator(null);
+    }
+    assertEquals(36, new Message().getMessageID().length());
+  }
+
+  @Test
+  public void testAgentLocalRandom() {
+    log.info("testAgentLocalRandom");
+    Random ref = new Random(7);
+    AgentLocalRandom r = new AgentLocalRandom();
+    r.setSeed(7);
+    for (int i = 0; i < 1000; i++) {
+      assertEquals(ref.nextInt(), r.nextInt());
+      assertEquals(ref.nextDouble(), r.nextDouble(), 0);
+      assertEquals(ref.nextGaussian(), r.nextGaussian(), 0);
+    }
+    double[] x = new double[100000];
+    AgentLocalRandom.setFastGenerator(true);
+    try {
+      AgentLocalRandom r1 = new AgentLocalRandom();
+      AgentLocalRandom r2 = new AgentLocalRandom();
+      r1.setSeed(42);
+      r2.setSeed(42);
+      for (int i = 0; i < 1000; i++)
+        assertEquals(r1.nextLong(), r2.nextLong());
+      r1.fillGaussian(x, 1.0, 4.0);
+    } finally {
+      AgentLocalRandom.setFastGenerator(false);
+    }
+    double m = 0, v = 0;
+    for (double a: x) m += a;
+    m /= x.length;
+    for (double a: x) v += (a-m)*(a-m);
+    v /= x.length;
+    assertEquals(1.0, m, 0.05);
+    assertEquals(4.0, v, 0.1);
+    r.fillRayleigh(x, 1.0);
+    m = 0;
+    for (double a: x) m += a;
+    assertEquals(Math.sqrt(Math.PI/2), m/x.length, 0.02);
+    r.fillRician(x, 0.0, 1.0);
+    m = 0;
+    for (double a: x) m += a;
+    assertEquals(Math.sqrt(Math.PI/2), m/x.length, 0.02);
+  }
+
+  @Test
+  public void testMessageTracer() throws IOException {
+    log.info("testMessageTracer");
+    File file = new File("build/test/trace.bin");
+    file.getParentFile().mkdirs();
+    MessageTracer tracer = new MessageTracer(file, 16);
+    Platform platform = new RealTimePlatform();
+    Container container = new Container(platform);
+    container.setMessageTracer(tracer);
+    ServerAgent server = new ServerAgent();
+    container.add("S", server);
+    platform.start();
+    RequestMessage req = new RequestMessage(server.getAgentID());
+    req.setSender(new AgentID("C"));
+    String id = req.getMessageID();
+    container.send(req);
+    container.send(new NuisanceMessage(server.topic("noise")));
+    platform.delay(DELAY);
+    platform.shutdown();
+    tracer.close();
+    assertEquals(0, tracer.getDropped());
+    ByteArrayOutputStream buf = new ByteArrayOutputStream();
+    MessageTracer.decode(file, new PrintStream(buf));
+    String trace = buf.toString();
+    assertEquals(3, trace.trim().split("\n").length);
+    assertTrue(trace.contains(" C > S : "+RequestMessage.class.getName()+" "+id+" 0"));
+    assertTrue(trace.contains(" S > C : "+ResponseMessage.class.getName()));
+    assertTrue(trace.contains(" > #noise : "+NuisanceMessage.class.getName()+" #0 0"));
+  }
+
+  @Test
+  public void testAsyncLogHandler() throws InterruptedException {
+    log.info("testAsyncLogHandler");
+    final List<String> lines = Collections.synchronizedList(new ArrayList<>());
+    final Object gate = new Object();
+    Handler sink = new Handler() {
+      @Override
+      public void publish(LogRecord rec) {
+        synchronized (gate) {
+          lines.add(getFormatter().format(rec));
+        }
+      }
+      @Override
+      public void flush() { }
+      @Override
+      public void close() { }
+    };
+    sink.setFormatter(new LogFormatter());
+    AsyncLogHandler handler = new AsyncLogHandler(sink, 16, OverflowPolicy.BLOCK);
+    Logger logger = Logger.getLogger("test.async");
+    logger.setUseParentHandlers(false);
+    logger.addHandler(handler);
+    Thread[] threads = new Thread[4];
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] = new Thread(() -> {
+        for (int j = 0; j < 250; j++)
+          logger.info("line 1\nline 2");
+      });
+      threads[i].start();
+    }
+    for (Thread t: threads)
+      t.join();
+    handler.flush();
+    assertEquals(1000, lines.size());
+    assertTrue(lines.get(0).endsWith("|line 1\n\tline 2\n"));
+    assertTrue(lines.get(0).contains("|INFO|test.async@"));
+    assertTrue(lines.get(0).contains(":lambda$testAsyncLogHandler"));
+    logger.removeHandler(handler);
+    handler.close();
+    lines.clear();
+    handler = new AsyncLogHandler(sink, 16, OverflowPolicy.DROP_NEWEST);
+    logger.addHandler(handler);
+    synchronized (gate) {
+      for (int j = 0; j < 100; j++)
+        logger.info("burst");
+    }
+    handler.close();
+    logger.removeHandler(handler);
+    assertTrue(handler.getDropped() > 0);
+    int n = 0;
+    for (String line: lines)
+      if (line.contains("|burst")) n++;
+    assertEquals(100-handler.getDropped(), n);
+    try {
+      new AsyncLogHandler(sink, 16, OverflowPolicy.REJECT);
+      fail("REJECT policy accepted for logging");
+    } catch (IllegalArgumentException ex) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testKillUnsubscribes() {
+    log.info("testKillUnsubscribes");
+    Platform platform = new RealTimePlatform();
+    Container container = new Container(platform);
+    ServerAgent server = new ServerAgent();
+    container.add("S", server);
+    Agent[] workers = new Agent[10];
+    for (int i = 0; i < workers.length; i++) {
+      workers[i] = new Agent();
+      container.add("W"+i, workers[i]);
+    }
+    platform.start();
+    for (int i = 0; i < workers.length; i++) {
+      for (int j = 0; j < 100; j++)
+        container.subscribe(workers[i].getAgentID(), workers[i].topic("t"+j));
+      container.subscribe(workers[i].getAgentID(), workers[i].topic("noise"));
+      container.register(workers[i].getAgentID(), "worker");
+      container.register(workers[i].getAgentID(), "worker"+i);
+    }
+    assertEquals(workers.length, container.agentsForService("worker").length);
+    for (Agent w: workers)
+      container.kill(w.getAgentID());
+    platform.delay(DELAY);
+    assertNull(container.agentsForService("worker"));
+    assertNull(container.agentForService("worker0"));
+    assertEquals(server.getAgentID(), container.agentForService("server"));
+    container.send(new NuisanceMessage(server.topic("noise")));
+    platform.delay(DELAY);
+    platform.shutdown();
+    assertEquals(1, server.nuisance);
+  }
+
+  @Test
+  public void testConcurrentSubscribe() throws InterruptedException {
+    log.info("testConcurrentSubscribe");
+    final int nMsgs = 20000;
+    Platform platform = new RealTimePlatform();
+    final Container container = new Container(platform);
+    final AtomicInteger received = new AtomicInteger();
+    Agent subscriber = new Agent() {
+      @Override
+      public void init() {
+        subscribe(topic("news"));
+        add(new MessageBehavior() {
+          @Override
+          public void onReceive(Message msg) {
+            received.incrementAndGet();
+          }
+        });
+      }
+    };
+    subscriber.setQueueSize(0);
+    container.add("subscriber", subscriber);
+    final Agent[] churn = new Agent[10];
+    for (int i = 0; i < churn.length; i++) {
+      churn[i] = new Agent();
+      container.add("churn"+i, churn[i]);
+    }
+    platform.start();
+    final AgentID topic = subscriber.topic("news");
+    final AtomicInteger heard = new AtomicInteger();
+    final MessageListener listener = msg -> {
+      heard.incrementAndGet();
+      return false;
+    };
+    final List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+    final AtomicBoolean done = new AtomicBoolean();
+    Thread churner = new Thread(() -> {
+      try {
+        for (int i = 0; !done.get(); i++) {
+          AgentID aid = churn[i % churn.length].getAgentID();
+          container.subscribe(aid, topic);
+          container.addListener(listener);
+          container.unsubscribe(aid, topic);
+          container.removeListener(listener);
+        }
+      } catch (Throwable ex) {
+        errors.add(ex);
+      }
+    });
+    churner.start();
+    for (int i = 0; i < nMsgs; i++)
+      container.send(new NuisanceMessage(topic));
+    done.set(true);
+    churner.join();
+    for (int i = 0; i < 10 && received.get() < nMsgs; i++)
+      platform.delay(DELAY);
+    platform.shutdown();
+    assertTrue(errors.isEmpty());
+    assertEquals(nMsgs, received.get());
+    assertEquals(0, subscriber.getMetrics().getMessagesDropped());
+  }
+
+  @Test
+  public void testConcurrentRegister() throws InterruptedException {
+    log.info("testConcurrentRegister");
+    final int nQueries = 20000;
+    Platform platform = new RealTimePlatform();
+    final Container container = new Container(platform);
+    final ServerAgent server = new ServerAgent();
+    container.add("server", server);
+    final Agent[] churn = new Agent[10];
+    final Set<AgentID> churnIDs = new HashSet<>();
+    for (int i = 0; i < churn.length; i++) {
+      churn[i] = new Agent();
+      churnIDs.add(container.add("churn"+i, churn[i]));
+    }
+    platform.start();
+    final List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+    final AtomicBoolean done = new AtomicBoolean();
+    Thread churner = new Thread(() -> {
+      try {
+        for (int i = 0; !done.get(); i++) {
+          AgentID aid = churn[i % churn.length].getAgentID();
+          container.register(aid, "churn");
+          container.register(aid, "churn"+i);
+          container.deregister(aid, "churn");
+          container.deregister(aid, "churn"+i);
+        }
+      } catch (Throwable ex) {
+        errors.add(ex);
+      }
+    });
+    Thread publisher = new Thread(() -> {
+      try {
+        while (!done.get())
+          container.send(new NuisanceMessage(server.topic("noise")));
+      } catch (Throwable ex) {
+        errors.add(ex);
+      }
+    });
+    churner.start();
+    publisher.start();
+    for (int i = 0; i < nQueries; i++) {
+      assertEquals(server.getAgentID(), container.agentForService("server"));
+      AgentID[] aids = container.agentsForService("churn");
+      if (aids != null) {
+        for (AgentID aid: aids)
+          assertTrue(churnIDs.contains(aid));
+      }
+      AgentID aid = container.agentForService("churn");
+      if (aid != null) assertTrue(churnIDs.contains(aid));
+    }
+    done.set(true);
+    churner.join();
+    publisher.join();
+    platform.shutdown();
+    assertTrue(errors.isEmpty());
+    assertNull(container.agentForService("churn"));
+    assertTrue(server.nuisance > 0);
+  }
+
+  @Test
+  public void testRoutingVersion() {
+    log.info("testRoutingVersion");
+    class VersionedContainer extends Container {
+      VersionedContainer(Platform platform) {
+        super(platform);
+      }
+      long version() {
+        return getRoutingVersion();
+      }
+      Object lock() {
+        return agents;
+      }
+    }
+    Platform platform = new RealTimePlatform();
+    final VersionedContainer container = new VersionedContainer(platform);
+    final AtomicLong version = new AtomicLong();
+    final AgentID child = new AgentID("child");
+    container.add("parent", new Agent() {
+      @Override
+      public void init() {
+        // hold off the container from starting the child until the version is read
+        synchronized (container.lock()) {
+          container.add(child.getName(), new Agent());
+          assertFalse(Arrays.asList(container.getAgents()).contains(child));
+          version.set(container.version());
+        }
+      }
+    });
+    platform.start();
+    assertTrue(Arrays.asList(container.getAgents()).contains(child));
+    assertTrue(container.version() > version.get());
+    platform.shutdown();
+  }
+
   @Test
   public void testRemote1() throws IOException {
     log.info("testRemote1");
@@ -108,6 +1193,105 @@ public class BasicTests {
     assertEquals(client.nuisance, server.nuisance);
   }
 
+  @Test
+  public void testRemoteStartup() throws IOException {
+    log.info("testRemoteStartup");
+    Platform platform = new RealTimePlatform();
+    Platform platform2 = new RealTimePlatform();
+    MasterContainer master = new MasterContainer(platform);
+    ServerAgent server = new ServerAgent();
+    master.add("server", server);
+    platform.start();
+    SlaveContainer slave = new SlaveContainer(platform2, "localhost", master.getPort());
+    platform.delay(DELAY/2);    // connected, but not yet started
+    final AtomicInteger inited = new AtomicInteger();
+    slave.add("parent", new Agent() {
+      @Override
+      public void init() {
+        getContainer().add("child", new Agent() {
+          @Override
+          public void init() {
+            inited.incrementAndGet();
+          }
+        });
+      }
+    });
+    long t0 = System.currentTimeMillis();
+    platform2.start();
+    long dt = System.currentTimeMillis() - t0;
+    assertTrue("startup took "+dt+" ms", dt < DELAY);
+    assertEquals(1, inited.get());
+    assertTrue(slave.containsAgent(new AgentID("child")));
+    assertTrue(master.canLocateAgent(new AgentID("child")));
+    assertEquals(server.getAgentID(), slave.agentForService("server"));
+    platform2.shutdown();
+    platform.shutdown();
+    // master and slave on the same platform must not wait for each other
+    platform = new RealTimePlatform();
+    master = new MasterContainer(platform);
+    slave = new SlaveContainer(platform, "localhost", master.getPort());
+    platform.delay(DELAY/2);
+    t0 = System.currentTimeMillis();
+    platform.start();
+    dt = System.currentTimeMillis() - t0;
+    assertTrue("startup took "+dt+" ms", dt < DELAY);
+    platform.shutdown();
+  }
+
+  @Test
+  public void testSendAll() throws IOException {
+    log.info("testSendAll");
+    Platform platform = new RealTimePlatform();
+    MasterContainer master = new MasterContainer(platform);
+    Container slave = new SlaveContainer(platform, "localhost", master.getPort());
+    final AtomicInteger local = new AtomicInteger();
+    final AtomicInteger remote = new AtomicInteger();
+    final AtomicInteger ntf = new AtomicInteger();
+    Agent a = new Agent() {
+      @Override
+      public void init() {
+        subscribe(topic("batch"));
+        add(new MessageBehavior() {
+          @Override
+          public void onReceive(Message msg) {
+            if (msg.getRecipient().isTopic()) ntf.incrementAndGet();
+            else local.incrementAndGet();
+          }
+        });
+      }
+    };
+    Agent b = new Agent() {
+      @Override
+      public void init() {
+        add(new MessageBehavior() {
+          @Override
+          public void onReceive(Message msg) {
+            remote.incrementAndGet();
+          }
+        });
+      }
+    };
+    Agent sender = new Agent();
+    master.add("a", a);
+    master.add("sender", sender);
+    slave.add("b", b);
+    platform.start();
+    List<Message> msgs = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      msgs.add(new Message(new AgentID("a"), Performative.INFORM));
+      msgs.add(new Message(new AgentID("b"), Performative.INFORM));
+    }
+    msgs.add(new Message(new AgentID("batch", true), Performative.INFORM));
+    msgs.add(new Message((AgentID)null, Performative.INFORM));
+    assertEquals(201, sender.sendAll(msgs));
+    platform.delay(DELAY);
+    platform.shutdown();
+    assertEquals(100, local.get());
+    assertEquals(100, remote.get());
+    assertEquals(1, ntf.get());
+    assertEquals(201, sender.getMetrics().getMessagesSent());
+  }
+
   @Test
   public void testRemote2() throws IOException {
     log.info("testRemote2");
@@ -179,6 +1363,106 @@ public class BasicTests {
     platform.shutdown();
   }
 
+  @Test
+  public void testConcurrentGateway() throws Exception {
+    log.info("testConcurrentGateway");
+    Platform platform = new RealTimePlatform();
+    MasterContainer master = new MasterContainer(platform);
+    ServerAgent server = new ServerAgent();
+    master.add("S", server);
+    platform.start();
+    final Gateway gw = new Gateway("localhost", master.getPort());
+    gw.setConcurrent(true);
+    final AgentID s = gw.agentForService("server");
+    final int nThreads = 8;
+    final int n = 50;
+    final AtomicInteger good = new AtomicInteger();
+    Thread[] threads = new Thread[nThreads];
+    for (int i = 0; i < nThreads; i++) {
+      final int base = i*n;
+      threads[i] = new Thread(() -> {
+        for (int j = 0; j < n; j++) {
+          RequestMessage req = new RequestMessage(s);
+          req.x = base+j;
+          Message rsp = gw.request(req, 5000);
+          if (rsp instanceof ResponseMessage && ((ResponseMessage)rsp).y == 2*req.x+1) good.incrementAndGet();
+        }
+      });
+      threads[i].start();
+    }
+    final Message[] received = new Message[1];
+    Thread receiver = new Thread(() -> received[0] = gw.receive(NuisanceMessage.class, 5000));
+    receiver.start();
+    for (Thread t: threads)
+      t.join();
+    assertEquals(nThreads*n, good.get());
+    assertNull(gw.receive(ResponseMessage.class, 100));
+    server.send(new NuisanceMessage(gw.getAgentID()));
+    receiver.join();
+    assertNotNull(received[0]);
+    assertNull(gw.request(new NuisanceMessage(s), 100));
+    gw.close();
+    platform.shutdown();
+  }
+
+  @Test
+  public void testGatewayFactory() {
+    log.info("testGatewayFactory");
+    Platform platform = new RealTimePlatform();
+    MasterContainer master = new MasterContainer(platform);
+    ServerAgent server = new ServerAgent();
+    master.add("S", server);
+    platform.start();
+    GatewayFactory factory = new GatewayFactory();
+    final int n = 20;
+    List<Gateway> gws = new ArrayList<>();
+    Set<AgentID> aids = new HashSet<>();
+    for (int i = 0; i < n; i++) {
+      Gateway gw = factory.getGateway("localhost", master.getPort());
+      gws.add(gw);
+      aids.add(gw.getAgentID());
+      assertSame(gws.get(0).getContainer(), gw.getContainer());
+    }
+    assertEquals(1, factory.getConnectionCount());
+    assertEquals(n, aids.size());
+    for (AgentID aid: aids)
+      assertTrue(gws.get(0).getContainer().containsAgent(aid));
+    AgentID s = gws.get(0).agentForService("server");
+    assertNotNull(s);
+    for (int i = 0; i < n; i++) {
+      RequestMessage req = new RequestMessage(s);
+      req.x = i;
+      Message rsp = gws.get(i).request(req, 5000);
+      assertNotNull(rsp);
+      assertEquals(2*i+1, ((ResponseMessage)rsp).y);
+    }
+    server.send(new NuisanceMessage(gws.get(1).getAgentID()));
+    assertNotNull(gws.get(1).receive(NuisanceMessage.class, 5000));
+    assertNull(gws.get(2).receive(NuisanceMessage.class, 100));
+    gws.get(0).close();
+    assertNotNull(gws.get(3).request(new RequestMessage(s), 5000));
+    factory.close();
+    Container container = new Container(new RealTimePlatform());
+    class NamedGateway extends Gateway {
+      NamedGateway(Container c) {
+        super(c);
+      }
+      @Override
+      public AgentID getAgentID() {
+        return new AgentID("gateway-named");
+      }
+    }
+    new NamedGateway(container);
+    try {
+      new NamedGateway(container);
+      fail("Duplicate gateway agent added");
+    } catch (FjageException ex) {
+      // expected
+    }
+    platform.shutdown();
+    assertEquals(n+1, server.requests);
+  }
+
   @Test
   public void testFSM() {
     log.info("testFSM");
@@ -253,6 +1537,64 @@ public class BasicTests {
       assertEquals("ticks = " + tb[i].getTickCount() + ", expected " + ticks, ticks, tb[i].getTickCount());
   }
 
+  @Test
+  public void testBehaviorScheduler() {
+    log.info("testBehaviorScheduler");
+    final int n = 2000;
+    final int msgs = 500;
+    Platform platform = new DiscreteEventSimulator();
+    Container container = new Container(platform);
+    final List<Long> late = Collections.synchronizedList(new ArrayList<>());
+    final List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+    final AtomicInteger woken = new AtomicInteger();
+    final AtomicInteger received = new AtomicInteger();
+    final AtomicInteger ticks = new AtomicInteger();
+    Agent agent = new Agent() {
+      @Override
+      protected void init() {
+        for (int i = 0; i < n; i++) {
+          final long t = 10 + (i*7919L)%5000;
+          add(new WakerBehavior(t) {
+            @Override
+            public void onWake() {
+              woken.incrementAndGet();
+              long dt = agent.currentTimeMillis()-getWakeupTime();
+              if (dt != 0) late.add(dt);
+            }
+          });
+        }
+        add(new TickerBehavior(100, ticks::incrementAndGet));
+        add(new MessageBehavior(m -> { received.incrementAndGet(); }));
+        for (int i = 0; i < 3; i++) {
+          final int id = i;
+          add(new OneShotBehavior(() -> order.add(id)));
+        }
+      }
+    };
+    Agent sender = new Agent() {
+      @Override
+      protected void init() {
+        add(new TickerBehavior(10) {
+          @Override
+          public void onTick() {
+            agent.send(new Message(new AgentID("A")));
+            if (getTickCount() >= msgs) stop();
+          }
+        });
+      }
+    };
+    container.add("A", agent);
+    container.add("S", sender);
+    platform.start();
+    platform.delay(6000);
+    platform.shutdown();
+    assertEquals(n, woken.get());
+    assertEquals(msgs, received.get());
+    assertTrue(ticks.get() >= 59);
+    assertTrue("late wakeups: "+late, late.isEmpty());
+    assertEquals(Arrays.asList(0, 1, 2), order);
+  }
+
   @Test
   public void testSerialCloner() {
     log.info("testSerialCloner");
@@ -279,6 +1621,188 @@ public class BasicTests {
     assertEquals(s1.x, s2.x);
   }
 
+  @Test
+  public void testCopyCloner() {
+    log.info("testCopyCloner");
+    Platform platform = new DiscreteEventSimulator();
+    Container container = new Container(platform);
+    container.setCloner(Container.COPY_CLONER);
+    RequestMessage s1 = new RequestMessage(new AgentID("x", true));
+    s1.x = 77;
+    RequestMessage s2 = container.clone(s1);
+    assertNotSame(s1, s2);
+    assertEquals(s1.x, s2.x);
+    assertEquals(s1.getMessageID(), s2.getMessageID());
+    assertEquals(s1.getRecipient(), s2.getRecipient());
+    assertTrue(s2.getRecipient().isTopic());
+    GraphMessage g1 = new GraphMessage();
+    g1.data = new double[] { 1, 2, 3 };
+    g1.names = new String[] { "a", "b" };
+    g1.list.add(g1.data);
+    g1.self = g1;
+    g1.cache = "cache";
+    g1.setPerformative(Performative.AGREE);
+    GraphMessage g2 = container.clone(g1);
+    assertNotSame(g1.data, g2.data);
+    assertArrayEquals(g1.data, g2.data, 0);
+    assertNotSame(g1.names, g2.names);
+    assertEquals("b", g2.names[1]);
+    assertNotSame(g1.list, g2.list);
+    assertSame(g2.data, g2.list.get(0));
+    assertSame(g2, g2.self);
+    assertNull(g2.cache);
+    assertSame(Performative.AGREE, g2.getPerformative());
+    GenericMessage m1 = new GenericMessage();
+    m1.put("k", new int[] { 42 });
+    GenericMessage m2 = container.clone(m1);
+    assertEquals(42, ((int[])m2.get("k"))[0]);
+  }
+
+  @Test
+  public void testImmutableAutoclone() {
+    log.info("testImmutableAutoclone");
+    Platform platform = new RealTimePlatform();
+    Container container = new Container(platform);
+    container.setCloner(Container.COPY_CLONER);
+    container.setAutoClone(true);
+    final List<Message> received = Collections.synchronizedList(new ArrayList<>());
+    Agent agent = new Agent() {
+      @Override
+      public void init() {
+        add(new MessageBehavior() {
+          @Override
+          public void onReceive(Message msg) {
+            received.add(msg);
+          }
+        });
+      }
+    };
+    container.add("a", agent);
+    platform.start();
+    Message m1 = new NuisanceMessage(agent.getAgentID());
+    FrozenMessage m2 = new FrozenMessage(agent.getAgentID());
+    container.send(m1);
+    container.send(m2);
+    platform.delay(DELAY);
+    platform.shutdown();
+    assertEquals(2, received.size());
+    assertNotSame(m1, received.get(0));
+    assertEquals(m1.getMessageID(), received.get(0).getMessageID());
+    assertSame(m2, received.get(1));
+  }
+
+  @Test
+  public void testAgentMetrics() throws Exception {
+    log.info("testAgentMetrics");
+    Platform platform = new RealTimePlatform();
+    Container container = new Container(platform);
+    container.setJmxEnabled(true);
+    Agent server = new Agent() {
+      @Override
+      public void init() {
+        add(new ParameterMessageBehavior());
+        add(new MessageBehavior(RequestMessage.class) {
+          @Override
+          public void onReceive(Message msg) {
+            send(new ResponseMessage(msg));
+          }
+        });
+      }
+    };
+    final List<Object> values = Collections.synchronizedList(new ArrayList<>());
+    Agent client = new Agent() {
+      @Override
+      public void init() {
+        add(new OneShotBehavior() {
+          @Override
+          public void action() {
+            for (int i = 0; i < 10; i++)
+              request(new RequestMessage(agent("server")), DELAY);
+            ParameterReq req = new ParameterReq().get(new NamedParameter("metrics.messagesReceived"));
+            req.get(new NamedParameter("metrics.mailboxDepth"));
+            req.get(new NamedParameter("metrics.unknown"));
+            req.setRecipient(agent("server"));
+            ParameterRsp rsp = (ParameterRsp)request(req, DELAY);
+            if (rsp == null) return;
+            values.add(rsp.get(new NamedParameter("metrics.messagesReceived")));
+            values.add(rsp.get(new NamedParameter("metrics.mailboxDepth")));
+            values.add(rsp.isReadonly(new NamedParameter("metrics.messagesReceived")));
+            values.add(rsp.get(new NamedParameter("metrics.unknown")));
+          }
+        });
+      }
+    };
+    container.add("server", server);
+    container.add("client", client);
+    platform.start();
+    platform.delay(DELAY);
+    AgentMetrics m = client.getMetrics();
+    assertEquals(11, m.getRequests());
+    assertEquals(0, m.getRequestTimeouts());
+    assertEquals(11, m.getMessagesSent());
+    assertTrue(m.getRequestLatencyMax() > 0);
+    assertTrue(m.getRequestLatencyP50() <= m.getRequestLatencyMax());
+    assertTrue(m.getBehaviorRuns() > 0);
+    assertEquals(4, values.size());
+    assertEquals(11L, ((Number)values.get(0)).longValue());
+    assertEquals(0, ((Number)values.get(1)).intValue());
+    assertEquals(true, values.get(2));
+    assertNull(values.get(3));
+    javax.management.MBeanServer mbs = java.lang.management.ManagementFactory.getPlatformMBeanServer();
+    javax.management.ObjectName on = new javax.management.ObjectName("org.arl.fjage:type=Agent,container=\""+container.getName()+"\",name=\"server\"");
+    assertTrue(mbs.isRegistered(on));
+    assertEquals(11L, mbs.getAttribute(on, "MessagesReceived"));
+    platform.shutdown();
+    platform.awaitTermination();
+    assertFalse(mbs.isRegistered(on));
+  }
+
+  @Test
+  public void testJmxNameConflict() throws Exception {
+    log.info("testJmxNameConflict");
+    Platform platform1 = new RealTimePlatform();
+    Platform platform2 = new RealTimePlatform();
+    Container container1 = new Container(platform1, "jmxtest");
+    Container container2 = new Container(platform2, "jmxtest");
+    container1.setJmxEnabled(true);
+    container2.setJmxEnabled(true);
+    Agent agent1 = new Agent();
+    Agent agent2 = new Agent();
+    container1.add("a", agent1);
+    container2.add("a", agent2);
+    javax.management.MBeanServer mbs = java.lang.management.ManagementFactory.getPlatformMBeanServer();
+    javax.management.ObjectName on = new javax.management.ObjectName("org.arl.fjage:type=Agent,container=\"jmxtest\",name=\"a\"");
+    assertTrue(mbs.isRegistered(on));
+    container2.kill(agent2.getAgentID());
+    container2.setJmxEnabled(false);
+    assertTrue(mbs.isRegistered(on));
+    container1.setName("jmxtest1");
+    assertFalse(mbs.isRegistered(on));
+    javax.management.ObjectName on1 = new javax.management.ObjectName("org.arl.fjage:type=Agent,container=\"jmxtest1\",name=\"a\"");
+    assertTrue(mbs.isRegistered(on1));
+    container1.setJmxEnabled(false);
+    assertFalse(mbs.isRegistered(on1));
+    platform1.shutdown();
+    platform2.shutdown();
+  }
+
+  @Test
+  public void testDroppedMessages() {
+    log.info("testDroppedMessages");
+    Platform platform = new RealTimePlatform();
+    Container container = new Container(platform);
+    Agent agent = new Agent();
+    agent.setQueueSize(4);
+    container.add("a", agent);
+    platform.start();
+    for (int i = 0; i < 10; i++)
+      container.send(new RequestMessage(agent.getAgentID()));
+    platform.delay(DELAY/10);
+    platform.shutdown();
+    assertEquals(6, agent.getMetrics().getMessagesDropped());
+    assertEquals(10, agent.getMetrics().getMessagesReceived());
+  }
+
   @Test
   public void testPersistence() {
     log.info("testPersistence");
@@ -589,6 +2113,27 @@ public class BasicTests {
     }
   }
 
+  private static class LevelMessage extends Message {
+    private static final long serialVersionUID = 1L;
+    public int priority;
+  }
+
+  private static class GraphMessage extends Message {
+    private static final long serialVersionUID = 1L;
+    public double[] data;
+    public String[] names;
+    public List<Object> list = new ArrayList<>();
+    public GraphMessage self;
+    public transient String cache;
+  }
+
+  private static class FrozenMessage extends Message implements ImmutableMessage {
+    private static final long serialVersionUID = 1L;
+    public FrozenMessage(AgentID recipient) {
+      super(recipient, Performative.INFORM);
+    }
+  }
+
   public enum Params implements Parameter {
     x, y, z, s
   }
@@ -954,6 +2499,37 @@ public class BasicTests {
     }
   }
 
+  private static class GossipAgent extends Agent {
+    final int n;
+    long hash = 0;
+    GossipAgent(int n) {
+      this.n = n;
+    }
+    @Override
+    public void init() {
+      add(new TickerBehavior(100) {
+        @Override
+        public void onTick() {
+          if (getTickCount() >= 20) stop();
+          gossip(0);
+        }
+      });
+      add(new MessageBehavior(GenericMessage.class, msg -> {
+        GenericMessage m = (GenericMessage)msg;
+        int hops = (Integer)m.get("hops");
+        hash = 31*hash + 7*(Integer)m.get("v") + m.getSender().getName().hashCode();
+        if (hops < 3 && AgentLocalRandom.current().nextBoolean()) gossip(hops+1);
+      }));
+    }
+    private void gossip(int hops) {
+      AgentLocalRandom rnd = AgentLocalRandom.current();
+      GenericMessage m = new GenericMessage(new AgentID("g"+rnd.nextInt(n)), Performative.INFORM);
+      m.put("v", rnd.nextInt(1000));
+      m.put("hops", hops);
+      send(m);
+    }
+  }
+
   private static class MyMessageListener implements MessageListener {
     public List<Message> msgs = Collections.synchronizedList(new ArrayList<Message>());
     public int n = 0;
@@ -84,6 +84,13 @@ public class FirewallTests {
     } catch (AuthFailureException ex) {
       // all good
     }
+    gw.setConcurrent(true);
+    try {
+      gw.request(new RequestMessage(server.getAgentID()), 1000);
+      fail("Should have thrown AuthFailureException");
+    } catch (AuthFailureException ex) {
+      // all good
+    }
     gw.close();
     platform.shutdown();
     assertEquals(0, server.requests);